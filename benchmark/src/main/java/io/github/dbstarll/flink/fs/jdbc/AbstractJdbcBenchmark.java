@@ -0,0 +1,213 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import com.alibaba.druid.pool.DruidDataSourceFactory;
+import org.apache.flink.core.fs.FSDataOutputStream;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+import org.apache.flink.util.IOUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * 每个trial使用一个独立的H2内存库（MySQL模式），表结构为init.sql加上已开启的配置项的迁移脚本.
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractJdbcBenchmark {
+    static final String TABLE = "test";
+    static final String ROOT = "jdbc://" + TABLE + "/";
+    private static final int DEFAULT_MAX_ACTIVE = 64;
+    private static final Map<String, String> MIGRATIONS = new LinkedHashMap<>();
+
+    static {
+        MIGRATIONS.put(JdbcFileSystemContext.PATH_HASH, "sql/path_hash.sql");
+        MIGRATIONS.put(JdbcFileSystemContext.TIER_URI, "sql/tier_ref.sql");
+        MIGRATIONS.put(JdbcFileSystemContext.SUMMARY, "sql/summary.sql");
+    }
+
+    private JdbcFileSystemContext context;
+    protected DataSource ds;
+    protected JdbcFileSystem fs;
+
+    @Setup(Level.Trial)
+    public void setUpDatabase() throws Exception {
+        final Properties properties = properties();
+        this.ds = dataSource(DEFAULT_MAX_ACTIVE, properties);
+        this.context = new JdbcFileSystemContext(properties);
+        this.fs = new JdbcFileSystem(ds, URI.create(ROOT), context);
+        prepare();
+    }
+
+    /**
+     * 创建一个新的H2内存库（MySQL模式），按init.sql建表，再执行已开启的配置项的迁移脚本.
+     *
+     * @param maxActive  连接池的最大连接数
+     * @param properties JdbcFileSystemContext的配置
+     * @return 连接池
+     * @throws Exception 创建失败
+     */
+    static DataSource dataSource(final int maxActive, final Properties properties) throws Exception {
+        final Properties dataSourceProperties = new Properties();
+        dataSourceProperties.setProperty("driverClassName", "org.h2.Driver");
+        dataSourceProperties.setProperty("url", "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MYSQL;DB_CLOSE_DELAY=-1");
+        dataSourceProperties.setProperty("maxActive", Integer.toString(maxActive));
+        final DataSource dataSource = DruidDataSourceFactory.createDataSource(dataSourceProperties);
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            // H2没有path_hash.sql回填时用到的MD5与CONV
+            st.execute("CREATE ALIAS MD5 FOR '" + AbstractJdbcBenchmark.class.getName() + ".md5'");
+            st.execute("CREATE ALIAS CONV FOR '" + AbstractJdbcBenchmark.class.getName() + ".conv'");
+            st.execute(resource("init.sql"));
+            for (Map.Entry<String, String> migration : MIGRATIONS.entrySet()) {
+                final String value = properties.getProperty(migration.getKey());
+                if (value != null && !value.isEmpty() && !"false".equalsIgnoreCase(value)) {
+                    st.execute(resource(migration.getValue()));
+                }
+            }
+        }
+        return dataSource;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownDatabase() throws IOException {
+        context.close();
+        if (ds instanceof Closeable) {
+            ((Closeable) ds).close();
+        }
+    }
+
+    /**
+     * JdbcFileSystemContext的配置，子类可覆盖以测量不同的选项.
+     *
+     * @return 配置
+     */
+    protected Properties properties() {
+        return new Properties();
+    }
+
+    /**
+     * 在每个trial开始时准备数据.
+     *
+     * @throws Exception 准备失败
+     */
+    protected void prepare() throws Exception {
+    }
+
+    static Path path(final String path) {
+        return new Path(ROOT + path);
+    }
+
+    void write(final Path path, final byte[] content) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+            out.write(content);
+        }
+    }
+
+    void truncate() throws SQLException {
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            st.executeUpdate("TRUNCATE TABLE `" + TABLE + "`");
+        }
+    }
+
+    /**
+     * 绕过JdbcFileSystem批量插入一棵子树：dir下有dirs个子目录，每个子目录下有files个空文件.
+     *
+     * @param dir   子树的根目录
+     * @param dirs  子目录数
+     * @param files 每个子目录下的文件数
+     * @throws IOException  io异常
+     * @throws SQLException sql异常
+     */
+    void populate(final Path dir, final int dirs, final int files) throws IOException, SQLException {
+        fs.mkdirs(dir);
+        final long root = ((JdbcFileStatus) fs.getFileStatus(dir)).getId();
+        final String sql = "INSERT INTO `" + TABLE + "` (parent,name,path,file,created,modified) VALUES (?,?,?,?,?,?)";
+        final long now = System.currentTimeMillis();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement insertDir = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement insertFile = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            for (int d = 0; d < dirs; d++) {
+                final String dirPath = dir.getPath() + "/d" + d;
+                final long parent = insert(insertDir, root, "d" + d, dirPath, false, now);
+                for (int f = 0; f < files; f++) {
+                    insert(insertFile, parent, "f" + f, dirPath + "/f" + f, true, now);
+                    insertFile.addBatch();
+                }
+                insertFile.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+
+    private static long insert(final PreparedStatement ps, final long parent, final String name, final String path,
+                               final boolean file, final long now) throws SQLException {
+        ps.setLong(1, parent);
+        ps.setString(2, name);
+        ps.setString(3, path);
+        ps.setBoolean(4, file);
+        ps.setLong(5, now);
+        ps.setLong(6, now);
+        if (file) {
+            return 0;
+        }
+        ps.executeUpdate();
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static String resource(final String name) throws IOException {
+        try (InputStream is = AbstractJdbcBenchmark.class.getClassLoader().getResourceAsStream(name)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOUtils.copyBytes(is, out, 4096, false);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * H2中MD5的实现，返回小写十六进制.
+     *
+     * @param value 字符串
+     * @return UTF-8编码的MD5
+     * @throws NoSuchAlgorithmException 不支持MD5
+     */
+    public static String md5(final String value) throws NoSuchAlgorithmException {
+        final byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+        return String.format("%032x", new BigInteger(1, digest));
+    }
+
+    /**
+     * H2中CONV的实现.
+     *
+     * @param value 数字
+     * @param from  原来的进制
+     * @param to    目标进制
+     * @return 转换后的数字
+     */
+    public static String conv(final String value, final int from, final int to) {
+        return new BigInteger(value, from).toString(to);
+    }
+}
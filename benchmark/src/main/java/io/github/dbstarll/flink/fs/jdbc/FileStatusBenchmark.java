@@ -0,0 +1,42 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FileStatus;
+import org.apache.flink.core.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getFileStatus的单次查询开销，包括路径存在与不存在两种情况.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FileStatusBenchmark extends AbstractJdbcBenchmark {
+    private final Path file = path("job/chk-1/file");
+    private final Path missing = path("job/chk-1/missing");
+
+    @Override
+    protected void prepare() throws Exception {
+        write(file, new byte[16]);
+    }
+
+    @Benchmark
+    public FileStatus getFileStatus() throws IOException {
+        return fs.getFileStatus(file);
+    }
+
+    @Benchmark
+    public boolean exists() throws IOException {
+        return fs.exists(missing);
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口，未通过-prof指定profiler时默认开启GC与内存分配统计.
+ * <p>
+ * 先在根目录执行mvn install，再执行mvn -f benchmark/pom.xml package，
+ * 然后运行java -jar benchmark/target/benchmarks.jar [JMH参数]，如java -jar benchmarks.jar ReadBenchmark -p size=1024.
+ */
+public final class JdbcBenchmarks {
+    private JdbcBenchmarks() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions cmd = new CommandLineOptions(args);
+        final ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmd);
+        if (cmd.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+}
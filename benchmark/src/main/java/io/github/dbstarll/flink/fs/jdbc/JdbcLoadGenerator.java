@@ -0,0 +1,258 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.FSDataOutputStream;
+import org.apache.flink.core.fs.FileStatus;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在H2内存库上并发重放Flink checkpoint的读写模式，输出每种操作的延迟分位数、吞吐与错误率.
+ * <p>
+ * 写阶段：每个checkpoint由writers个线程同时向chk-n以及共享的shared目录写文件，写失败的checkpoint被中止并丢弃；
+ * 完成的checkpoint超过retained个时，由cleaners个线程并发递归删除被取代的checkpoint.
+ * 恢复阶段：readers个线程同时打开并读完最后一个checkpoint的所有文件，重复restores次.
+ * <p>
+ * 运行：java -cp benchmarks.jar io.github.dbstarll.flink.fs.jdbc.JdbcLoadGenerator --writers 128 --size 16384，
+ * 以fs.jdbc.开头的参数作为JdbcFileSystem的配置，如--fs.jdbc.batchSize 100.
+ */
+public final class JdbcLoadGenerator {
+    private static final String CONFIG_PREFIX = "fs.jdbc.";
+    private static final int MAX_ACTIVE_SPARE = 4;
+
+    private final int writers;
+    private final int cleaners;
+    private final int readers;
+    private final int checkpoints;
+    private final int files;
+    private final int size;
+    private final int retained;
+    private final int restores;
+    private final Properties properties = new Properties();
+
+    private final LatencyRecorder mkdirs = new LatencyRecorder("mkdirs");
+    private final LatencyRecorder create = new LatencyRecorder("create");
+    private final LatencyRecorder deleteShared = new LatencyRecorder("deleteShared");
+    private final LatencyRecorder delete = new LatencyRecorder("delete");
+    private final LatencyRecorder open = new LatencyRecorder("open");
+    private int completed;
+    private int aborted;
+
+    private JdbcFileSystem fs;
+    private byte[] content;
+
+    JdbcLoadGenerator(final ParameterTool params) {
+        this.writers = params.getInt("writers", 64);
+        this.cleaners = params.getInt("cleaners", 4);
+        this.readers = params.getInt("readers", 64);
+        this.checkpoints = params.getInt("checkpoints", 20);
+        this.files = params.getInt("files", 4);
+        this.size = params.getInt("size", 16 * 1024);
+        this.retained = params.getInt("retained", 1);
+        this.restores = params.getInt("restores", 3);
+        for (Map.Entry<String, String> entry : params.toMap().entrySet()) {
+            if (entry.getKey().startsWith(CONFIG_PREFIX)) {
+                properties.setProperty(entry.getKey().substring(CONFIG_PREFIX.length()), entry.getValue());
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        new JdbcLoadGenerator(ParameterTool.fromArgs(args)).run(System.out);
+    }
+
+    void run(final PrintStream out) throws Exception {
+        final int maxActive = Math.max(writers + cleaners, readers) + MAX_ACTIVE_SPARE;
+        final DataSource ds = AbstractJdbcBenchmark.dataSource(maxActive, properties);
+        try (JdbcFileSystemContext context = new JdbcFileSystemContext(properties)) {
+            this.fs = new JdbcFileSystem(ds, URI.create(AbstractJdbcBenchmark.ROOT), context);
+            this.content = new byte[size];
+            new Random(0).nextBytes(content);
+            final JdbcFileSystemMetrics.Table metrics = JdbcFileSystemMetrics.get().table(fs.getUri().getAuthority());
+            final long rollbacks = metrics.getRollbacks().getCount();
+            final long start = System.nanoTime();
+            final int last = checkpoint();
+            final long restoreStart = System.nanoTime();
+            if (last > 0) {
+                restore(last);
+            }
+            final long end = System.nanoTime();
+
+            out.printf("writers=%d cleaners=%d readers=%d checkpoints=%d files=%d size=%d retained=%d restores=%d%n",
+                    writers, cleaners, readers, checkpoints, files, size, retained, restores);
+            out.printf("checkpoint phase %.1fs, restore phase %.1fs%n", seconds(restoreStart - start),
+                    seconds(end - restoreStart));
+            out.printf("checkpoints completed=%d aborted=%d abort%%=%.2f rollbacks=%d%n", completed, aborted,
+                    100d * aborted / Math.max(1, completed + aborted),
+                    metrics.getRollbacks().getCount() - rollbacks);
+            out.println(LatencyRecorder.header());
+            for (LatencyRecorder recorder : new LatencyRecorder[]{mkdirs, create, deleteShared, delete, open}) {
+                out.println(recorder);
+            }
+        } finally {
+            if (ds instanceof Closeable) {
+                ((Closeable) ds).close();
+            }
+        }
+    }
+
+    /**
+     * 写阶段.
+     *
+     * @return 最后一个完成的checkpoint，没有时返回0
+     * @throws InterruptedException 被中断
+     */
+    private int checkpoint() throws InterruptedException {
+        final ExecutorService writerPool = Executors.newFixedThreadPool(writers);
+        final ExecutorService cleanerPool = Executors.newFixedThreadPool(cleaners);
+        final Deque<Integer> retainedCheckpoints = new ArrayDeque<>();
+        try {
+            for (int checkpoint = 1; checkpoint <= checkpoints; checkpoint++) {
+                final int id = checkpoint;
+                final boolean prepared = timed(mkdirs, () -> fs.mkdirs(dir(id)));
+                final List<Callable<Boolean>> tasks = new ArrayList<>(writers);
+                for (int writer = 0; writer < writers; writer++) {
+                    final int subtask = writer;
+                    tasks.add(() -> write(id, subtask));
+                }
+                if (prepared && succeeded(writerPool.invokeAll(tasks))) {
+                    completed++;
+                    retainedCheckpoints.addLast(id);
+                    while (retainedCheckpoints.size() > retained) {
+                        final int subsumed = retainedCheckpoints.removeFirst();
+                        cleanerPool.execute(() -> discard(subsumed));
+                    }
+                } else {
+                    aborted++;
+                    cleanerPool.execute(() -> discard(id));
+                }
+            }
+        } finally {
+            writerPool.shutdown();
+            cleanerPool.shutdown();
+            cleanerPool.awaitTermination(1, TimeUnit.HOURS);
+        }
+        return retainedCheckpoints.isEmpty() ? 0 : retainedCheckpoints.getLast();
+    }
+
+    private boolean write(final int checkpoint, final int subtask) {
+        boolean succeeded = timed(create, () -> upload(new Path(shared(), checkpoint + "-" + subtask)));
+        for (int i = 0; i < files && succeeded; i++) {
+            final Path path = new Path(dir(checkpoint), subtask + "-" + i);
+            succeeded = timed(create, () -> upload(path));
+        }
+        return succeeded;
+    }
+
+    private boolean upload(final Path path) throws IOException {
+        try (FSDataOutputStream os = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+            os.write(content);
+        }
+        return true;
+    }
+
+    private void discard(final int checkpoint) {
+        for (int subtask = 0; subtask < writers; subtask++) {
+            final Path path = new Path(shared(), checkpoint + "-" + subtask);
+            // 中止的checkpoint可能没有写出全部共享文件，不存在时不算失败
+            timed(deleteShared, () -> fs.delete(path, false) || !fs.exists(path));
+        }
+        timed(delete, () -> fs.delete(dir(checkpoint), true));
+    }
+
+    /**
+     * 恢复阶段.
+     *
+     * @param checkpoint 恢复的checkpoint
+     * @throws Exception 列出checkpoint失败
+     */
+    private void restore(final int checkpoint) throws Exception {
+        final List<Path> paths = new ArrayList<>();
+        for (FileStatus status : fs.listStatus(dir(checkpoint))) {
+            paths.add(status.getPath());
+        }
+        for (int subtask = 0; subtask < writers; subtask++) {
+            paths.add(new Path(shared(), checkpoint + "-" + subtask));
+        }
+        final List<Callable<Boolean>> tasks = new ArrayList<>(paths.size() * restores);
+        for (int i = 0; i < restores; i++) {
+            for (Path path : paths) {
+                tasks.add(() -> timed(open, () -> read(path)));
+            }
+        }
+        final ExecutorService readerPool = Executors.newFixedThreadPool(readers);
+        try {
+            readerPool.invokeAll(tasks);
+        } finally {
+            readerPool.shutdown();
+        }
+    }
+
+    private boolean read(final Path path) throws IOException {
+        final byte[] buffer = new byte[content.length];
+        int total = 0;
+        try (FSDataInputStream is = fs.open(path)) {
+            for (int count = is.read(buffer); count >= 0; count = is.read(buffer)) {
+                total += count;
+            }
+        }
+        return total == content.length;
+    }
+
+    private static Path dir(final int checkpoint) {
+        return AbstractJdbcBenchmark.path("job/chk-" + checkpoint);
+    }
+
+    private static Path shared() {
+        return AbstractJdbcBenchmark.path("job/shared");
+    }
+
+    private static boolean timed(final LatencyRecorder recorder, final Callable<Boolean> operation) {
+        boolean succeeded = false;
+        final long start = System.nanoTime();
+        try {
+            succeeded = operation.call();
+        } catch (Exception e) {
+            succeeded = false;
+        } finally {
+            recorder.record(start, System.nanoTime(), succeeded);
+        }
+        return succeeded;
+    }
+
+    private static boolean succeeded(final List<Future<Boolean>> futures) throws InterruptedException {
+        boolean succeeded = true;
+        for (Future<Boolean> future : futures) {
+            try {
+                succeeded &= future.get();
+            } catch (ExecutionException e) {
+                succeeded = false;
+            }
+        }
+        return succeeded;
+    }
+
+    private static double seconds(final long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录一种操作的每次耗时，结束后计算精确的分位数与吞吐.
+ */
+final class LatencyRecorder {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final String name;
+    private long[] latencies = new long[INITIAL_CAPACITY];
+    private int count;
+    private long errors;
+    private long firstStart = Long.MAX_VALUE;
+    private long lastEnd = Long.MIN_VALUE;
+
+    LatencyRecorder(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一次操作.
+     *
+     * @param start     开始时间，System.nanoTime()
+     * @param end       结束时间，System.nanoTime()
+     * @param succeeded 操作是否成功
+     */
+    synchronized void record(final long start, final long end, final boolean succeeded) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = end - start;
+        if (!succeeded) {
+            errors++;
+        }
+        firstStart = Math.min(firstStart, start);
+        lastEnd = Math.max(lastEnd, end);
+    }
+
+    static String header() {
+        return String.format("%-14s %10s %8s %8s %10s %10s %10s %10s %10s", "operation", "count", "errors",
+                "error%", "ops/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+    }
+
+    @Override
+    public synchronized String toString() {
+        final long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        final StringBuilder builder = new StringBuilder(String.format("%-14s %10d %8d %8.3f %10.1f", name, count,
+                errors, count == 0 ? 0d : 100d * errors / count, count == 0 ? 0d
+                        : count * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, lastEnd - firstStart)));
+        for (double quantile : QUANTILES) {
+            builder.append(String.format(" %10.3f", millis(sorted, (int) Math.ceil(quantile * count) - 1)));
+        }
+        return builder.append(String.format(" %10.3f", millis(sorted, count - 1))).toString();
+    }
+
+    private static double millis(final long[] sorted, final int index) {
+        return sorted.length == 0 ? 0d : sorted[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
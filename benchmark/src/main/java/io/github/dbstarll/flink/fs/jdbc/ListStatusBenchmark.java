@@ -0,0 +1,64 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FileStatus;
+import org.apache.flink.core.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 列出一个包含大量文件的目录.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ListStatusBenchmark extends AbstractJdbcBenchmark {
+    @Param({"100", "1000", "10000"})
+    private int children;
+
+    private final Path dir = path("job/shared");
+
+    @Override
+    protected void prepare() throws Exception {
+        populate(dir, 1, children);
+    }
+
+    @Benchmark
+    public FileStatus[] listStatus() throws IOException {
+        return fs.listStatus(new Path(dir, "d0"));
+    }
+
+    /**
+     * 只使用长度与块信息，如计算checkpoint大小.
+     */
+    @Benchmark
+    public long listLengths() throws IOException {
+        long total = 0;
+        for (FileStatus status : fs.listStatus(new Path(dir, "d0"))) {
+            total += status.getLen() + fs.getFileBlockLocations(status, 0, status.getLen()).length;
+        }
+        return total;
+    }
+
+    /**
+     * 使用每个文件的路径，如遍历后逐个打开.
+     */
+    @Benchmark
+    public int listNames() throws IOException {
+        int total = 0;
+        for (FileStatus status : fs.listStatus(new Path(dir, "d0"))) {
+            total += status.getPath().getName().length();
+        }
+        return total;
+    }
+}
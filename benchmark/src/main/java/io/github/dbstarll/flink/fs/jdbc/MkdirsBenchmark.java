@@ -0,0 +1,44 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次创建depth层全新的目录.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MkdirsBenchmark extends AbstractJdbcBenchmark {
+    @Param({"4", "16", "64"})
+    private int depth;
+
+    private String suffix;
+    private long counter;
+
+    @Override
+    protected void prepare() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 1; i < depth; i++) {
+            builder.append("/l").append(i);
+        }
+        suffix = builder.toString();
+    }
+
+    @Benchmark
+    public boolean mkdirs() throws IOException {
+        return fs.mkdirs(path("m" + counter++ + suffix));
+    }
+}
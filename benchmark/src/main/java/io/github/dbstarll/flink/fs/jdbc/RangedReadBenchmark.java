@@ -0,0 +1,87 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按区间读取与打开时读取全部内容的对比.
+ * <p>
+ * H2中SUBSTRING会先把BLOB转换为最长1mb的BINARY VARYING，因此文件大小不超过1mb.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RangedReadBenchmark extends AbstractJdbcBenchmark {
+    private static final int SEEKS = 16;
+    private static final int SEEK_READ = 4096;
+
+    @Param({"262144", "1048576"})
+    private int size;
+
+    /**
+     * 为0时打开文件即读取全部内容.
+     */
+    @Param({"0", "64kb"})
+    private String rangeThreshold;
+
+    @Param({"0", "4"})
+    private int readAhead;
+
+    private final Path file = path("job/chk-1/file");
+    private final byte[] buffer = new byte[64 * 1024];
+    private final Random random = new Random(0);
+
+    @Override
+    protected Properties properties() {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.RANGE_THRESHOLD, rangeThreshold);
+        properties.setProperty(JdbcFileSystemContext.RANGE_SIZE, "64kb");
+        properties.setProperty(JdbcFileSystemContext.READ_AHEAD, Integer.toString(readAhead));
+        return properties;
+    }
+
+    @Override
+    protected void prepare() throws Exception {
+        final byte[] content = new byte[size];
+        random.nextBytes(content);
+        write(file, content);
+    }
+
+    @Benchmark
+    public long readFully() throws IOException {
+        long total = 0;
+        try (FSDataInputStream is = fs.open(file)) {
+            for (int count = is.read(buffer); count >= 0; count = is.read(buffer)) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long randomSeeks() throws IOException {
+        long total = 0;
+        try (FSDataInputStream is = fs.open(file)) {
+            for (int i = 0; i < SEEKS; i++) {
+                is.seek(random.nextInt(size - SEEK_READ));
+                total += is.read(buffer, 0, SEEK_READ);
+            }
+        }
+        return total;
+    }
+}
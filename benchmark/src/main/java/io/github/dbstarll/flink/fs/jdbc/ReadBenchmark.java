@@ -0,0 +1,66 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * open之后顺序读完整个文件，或者随机seek读取若干小段.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReadBenchmark extends AbstractJdbcBenchmark {
+    private static final int SEEKS = 64;
+    private static final int SEEK_READ = 4096;
+
+    @Param({"1024", "1048576", "16777216"})
+    private int size;
+
+    private final Path file = path("job/chk-1/file");
+    private final byte[] buffer = new byte[64 * 1024];
+    private final Random random = new Random(0);
+
+    @Override
+    protected void prepare() throws Exception {
+        final byte[] content = new byte[size];
+        random.nextBytes(content);
+        write(file, content);
+    }
+
+    @Benchmark
+    public long readFully() throws IOException {
+        long total = 0;
+        try (FSDataInputStream is = fs.open(file)) {
+            for (int count = is.read(buffer); count >= 0; count = is.read(buffer)) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long randomSeeks() throws IOException {
+        long total = 0;
+        try (FSDataInputStream is = fs.open(file)) {
+            for (int i = 0; i < SEEKS; i++) {
+                is.seek(random.nextInt(Math.max(1, size - SEEK_READ)));
+                total += is.read(buffer, 0, SEEK_READ);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 移动或递归删除一棵较大的子树，每次调用前重建子树.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TreeBenchmark extends AbstractJdbcBenchmark {
+    private static final int FILES_PER_DIR = 100;
+
+    @Param({"1000", "10000"})
+    private int files;
+
+    private final Path src = path("job/chk-1");
+    private final Path dst = path("job/chk-2");
+
+    @Setup(Level.Invocation)
+    public void populate() throws IOException, SQLException {
+        truncate();
+        populate(src, Math.max(1, files / FILES_PER_DIR), FILES_PER_DIR);
+    }
+
+    @Benchmark
+    public boolean rename() throws IOException {
+        return fs.rename(src, dst);
+    }
+
+    @Benchmark
+    public boolean deleteRecursive() throws IOException {
+        return fs.delete(src, true);
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FSDataOutputStream;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * create之后写入并在close时上传，覆盖已有文件或者新建文件后再删除，避免内存库不断增长.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WriteBenchmark extends AbstractJdbcBenchmark {
+    private static final int CHUNK = 4096;
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean deferredCreate;
+
+    private final Path file = path("job/chk-1/file");
+    private final Path created = path("job/chk-1/created");
+    private byte[] content;
+
+    @Override
+    protected Properties properties() {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.DEFERRED_CREATE, Boolean.toString(deferredCreate));
+        return properties;
+    }
+
+    @Override
+    protected void prepare() throws Exception {
+        content = new byte[size];
+        new Random(0).nextBytes(content);
+        fs.mkdirs(file.getParent());
+    }
+
+    private void upload(final Path path, final FileSystem.WriteMode mode) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, mode)) {
+            // 与Flink的CheckpointStateOutputStream一样分块写入
+            for (int off = 0; off < content.length; off += CHUNK) {
+                out.write(content, off, Math.min(CHUNK, content.length - off));
+            }
+        }
+    }
+
+    @Benchmark
+    public void overwrite() throws IOException {
+        upload(file, FileSystem.WriteMode.OVERWRITE);
+    }
+
+    @Benchmark
+    public boolean createAndDelete() throws IOException {
+        upload(created, FileSystem.WriteMode.NO_OVERWRITE);
+        return fs.delete(created, false);
+    }
+}
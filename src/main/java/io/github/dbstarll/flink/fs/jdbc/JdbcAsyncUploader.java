@@ -0,0 +1,218 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import io.github.dbstarll.flink.fs.jdbc.function.Consumer;
+import org.apache.flink.core.fs.Path;
+import org.apache.flink.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台异步上传文件内容.
+ * <p>
+ * 排队中的上传数量受限，队列满时提交方阻塞. 同一路径的上传按提交顺序执行.
+ * <p>
+ * 提交方通过{@link #submit}返回的结果得知本次上传是否失败. 失败的上传还会保留到被
+ * {@link #await(Path)}、{@link #awaitTree}或{@link #flush()}报告一次为止，同一路径上之后的上传会覆盖它.
+ */
+final class JdbcAsyncUploader implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcAsyncUploader.class);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final ConcurrentMap<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    JdbcAsyncUploader(final int threads, final int queueSize) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "jdbc-upload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.permits = new Semaphore(threads + queueSize);
+    }
+
+    /**
+     * 提交上传任务，任务结束后关闭resource.
+     *
+     * @param path     上传的路径
+     * @param resource 上传的内容
+     * @param task     上传任务
+     * @param <T>      上传内容的类型
+     * @return 上传结果
+     * @throws IOException 等待排队时被中断
+     */
+    <T extends Closeable> CompletableFuture<Void> submit(final Path path, final T resource,
+                                                         final Consumer<? super T> task) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            IOUtils.closeQuietly(resource);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while queueing upload: " + path);
+        }
+        final String key = path.toString();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> previous = pending.put(key, future);
+        try {
+            executor.execute(() -> {
+                try {
+                    if (previous != null) {
+                        // 同一路径的上一次上传先于本次提交，已经在执行或已完成
+                        previous.handle((v, e) -> null).join();
+                    }
+                    task.accept(resource);
+                    pending.remove(key, future);
+                    future.complete(null);
+                } catch (Throwable e) {
+                    LOGGER.error("async upload failed: " + key, e);
+                    // 失败的上传留在pending中，直到被报告
+                    future.completeExceptionally(e);
+                } finally {
+                    IOUtils.closeQuietly(resource);
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.remove(key, future);
+            IOUtils.closeQuietly(resource);
+            permits.release();
+            future.completeExceptionally(e);
+            throw new IOException("submit upload failed: " + path, e);
+        }
+        return future;
+    }
+
+    /**
+     * 等待提交方自己的上传完成. 失败仍保留，读取该路径的其他调用者同样会得到失败.
+     *
+     * @param future {@link #submit}返回的上传结果
+     * @throws IOException 上传失败
+     */
+    void await(final CompletableFuture<Void> future) throws IOException {
+        join(future);
+    }
+
+    /**
+     * 等待路径上排队中的上传完成.
+     *
+     * @param path 路径
+     * @throws IOException 上传失败
+     */
+    void await(final Path path) throws IOException {
+        final String key = path.toString();
+        final CompletableFuture<Void> future = pending.get(key);
+        if (future != null) {
+            report(key, future);
+        }
+    }
+
+    /**
+     * 等待路径及其子路径上排队中的上传完成.
+     *
+     * @param path 路径
+     * @throws IOException 上传失败
+     */
+    void awaitTree(final Path path) throws IOException {
+        throwIfFailed(awaitAll(path, true), "async upload failed under: " + path);
+    }
+
+    /**
+     * 等待路径及其子路径上排队中的上传完成，丢弃其中的失败. 用于删除路径之前.
+     *
+     * @param path 路径
+     * @throws IOException 等待时被中断
+     */
+    void discardTree(final Path path) throws IOException {
+        awaitAll(path, false);
+    }
+
+    /**
+     * 等待此前提交的所有上传完成，并抛出尚未报告的失败.
+     *
+     * @throws IOException 存在失败的上传
+     */
+    void flush() throws IOException {
+        throwIfFailed(awaitAll(null, true), "async upload failed");
+    }
+
+    private List<IOException> awaitAll(final Path path, final boolean report) throws IOException {
+        final String key = path == null ? null : path.toString();
+        final String prefix = key == null || key.endsWith(Path.SEPARATOR) ? key : key + Path.SEPARATOR;
+        final List<IOException> failures = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Void>> entry : new ArrayList<>(pending.entrySet())) {
+            if (key == null || entry.getKey().equals(key) || entry.getKey().startsWith(prefix)) {
+                try {
+                    report(entry.getKey(), entry.getValue());
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (report) {
+                        failures.add(e);
+                    }
+                }
+            }
+        }
+        return failures;
+    }
+
+    private void report(final String key, final CompletableFuture<Void> future) throws IOException {
+        try {
+            join(future);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // 已经报告过的失败不再重复报告
+            pending.remove(key, future);
+            throw e;
+        }
+    }
+
+    /**
+     * 不再接受新的上传，已经提交的上传继续执行.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    void awaitTermination() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private static void throwIfFailed(final List<IOException> failures, final String message) throws IOException {
+        if (!failures.isEmpty()) {
+            final IOException failure = new IOException(message, failures.get(0));
+            for (int i = 1; i < failures.size(); i++) {
+                failure.addSuppressed(failures.get(i));
+            }
+            throw failure;
+        }
+    }
+
+    private static void join(final CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for upload");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+}
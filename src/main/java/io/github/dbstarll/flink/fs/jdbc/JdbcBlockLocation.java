@@ -5,12 +5,15 @@ import org.apache.flink.core.fs.BlockLocation;
 import org.apache.flink.util.StringUtils;
 
 import javax.annotation.Nonnull;
+import java.util.StringJoiner;
 
 @Internal
 public final class JdbcBlockLocation implements BlockLocation {
+    private final long offset;
     private final long length;
 
-    JdbcBlockLocation(final long length) {
+    JdbcBlockLocation(final long offset, final long length) {
+        this.offset = offset;
         this.length = length;
     }
 
@@ -21,7 +24,7 @@ public final class JdbcBlockLocation implements BlockLocation {
 
     @Override
     public long getOffset() {
-        return 0;
+        return this.offset;
     }
 
     @Override
@@ -31,6 +34,14 @@ public final class JdbcBlockLocation implements BlockLocation {
 
     @Override
     public int compareTo(@Nonnull final BlockLocation o) {
-        return 0;
+        return Long.compare(this.offset, o.getOffset());
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", JdbcBlockLocation.class.getSimpleName() + "[", "]")
+                .add("offset=" + offset)
+                .add("length=" + length)
+                .toString();
     }
 }
@@ -0,0 +1,154 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.flink.util.Preconditions.checkArgument;
+
+/**
+ * 同一个JdbcFileSystemFactory下所有流共享的定长内存段池.
+ * <p>
+ * 配置了容量时，已分配的内存段总量不超过容量，申请不到内存段的流会阻塞等待其他流释放，超时后失败；
+ * 容量为0时不限制也不复用，流的第一段从initialSize开始按需倍增到segmentSize，小文件只占用少量内存.
+ * <p>
+ * 流逐段申请并持有到关闭，单个流需要的内存超过容量时立即失败；所有已分配的内存段都被正在等待的流持有时，
+ * 没有流能够继续，最后开始等待的流立即失败，关闭该流后其他流继续.
+ */
+final class JdbcBufferPool {
+    private final int segmentSize;
+    private final int segmentBits;
+    private final int initialSize;
+    private final long capacity;
+    private final boolean direct;
+    private final long timeoutNanos;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private long allocated;
+    private long waitingHeld;
+
+    JdbcBufferPool(final int initialSize, final int segmentSize, final long capacity, final boolean direct,
+                   final long timeoutMillis) {
+        checkArgument(segmentSize > 0 && segmentSize <= 1 << 30, "segmentSize out of range: " + segmentSize);
+        checkArgument(initialSize > 0, "initialSize must be positive: " + initialSize);
+        this.segmentBits = 32 - Integer.numberOfLeadingZeros(segmentSize - 1);
+        this.segmentSize = 1 << segmentBits;
+        this.initialSize = Math.min(initialSize, this.segmentSize);
+        checkArgument(capacity == 0 || capacity >= this.segmentSize, "capacity less than segmentSize: " + capacity);
+        this.capacity = capacity;
+        this.direct = direct;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    int getSegmentBits() {
+        return segmentBits;
+    }
+
+    /**
+     * 申请流的第一个内存段，容量为0时只有initialSize大小，写满后用{@link #grow}扩大.
+     *
+     * @return 内存段
+     * @throws IOException 内存池容纳不下一个内存段，或者等待超时
+     */
+    ByteBuffer acquireFirst() throws IOException {
+        if (capacity > 0) {
+            return acquire(0);
+        }
+        synchronized (this) {
+            allocated += initialSize;
+        }
+        return allocate(initialSize);
+    }
+
+    /**
+     * 把写满的、小于segmentSize的第一段扩大一倍，最多到segmentSize，并复制原有内容，原来的段由调用者释放.
+     *
+     * @param segment 写满的第一段
+     * @return 扩大后的内存段，已经是完整的内存段时返回null
+     */
+    ByteBuffer grow(final ByteBuffer segment) {
+        if (segment.capacity() >= segmentSize) {
+            return null;
+        }
+        final int size = Math.min(segment.capacity() << 1, segmentSize);
+        synchronized (this) {
+            allocated += size;
+        }
+        final ByteBuffer grown = allocate(size);
+        segment.flip();
+        grown.put(segment);
+        return grown;
+    }
+
+    /**
+     * 申请一个内存段.
+     *
+     * @param held 申请者已经持有的字节数
+     * @return 内存段
+     * @throws IOException 内存池容纳不下申请者需要的内存，或者等待超时
+     */
+    ByteBuffer acquire(final long held) throws IOException {
+        if (capacity > 0 && held + segmentSize > capacity) {
+            throw new IOException("buffer larger than pool: " + (held + segmentSize) + "/" + capacity);
+        }
+        synchronized (this) {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            while (true) {
+                final ByteBuffer buffer = free.poll();
+                if (buffer != null) {
+                    buffer.clear();
+                    return buffer;
+                } else if (capacity == 0 || allocated + segmentSize <= capacity) {
+                    allocated += segmentSize;
+                    break;
+                } else if (waitingHeld + held >= allocated) {
+                    throw new IOException("buffer pool deadlock, all segments held by waiting streams: "
+                            + allocated + "/" + capacity);
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("buffer pool exhausted: " + allocated + "/" + capacity);
+                }
+                waitingHeld += held;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for buffer");
+                } finally {
+                    waitingHeld -= held;
+                }
+            }
+        }
+        return allocate(segmentSize);
+    }
+
+    private ByteBuffer allocate(final int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    void release(final ByteBuffer buffer) {
+        synchronized (this) {
+            if (capacity == 0) {
+                allocated -= buffer.capacity();
+            } else {
+                free.push(buffer);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 正在被流使用的字节数.
+     *
+     * @return 正在使用的字节数
+     */
+    synchronized long getUsed() {
+        return allocated - (long) free.size() * segmentSize;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,275 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.configuration.GlobalConfiguration;
+import org.apache.flink.core.fs.FileStatus;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 在jdbc表（或其中的一棵子树）与本地目录之间批量传输文件.
+ * <p>
+ * 按目录与文件并行，每个任务使用各自的连接，文件内容在数据库与本地文件之间流式复制.
+ * 导入时每个目录的文件元数据在一个事务中批量插入. 导出的文件先写入临时目录再改名，
+ * 已经传输过的文件再次运行时跳过，因此中断后重新运行即可续传.
+ * <p>
+ * 并行任务使用各自的线程池，用完后需要{@link #close()}.
+ */
+public final class JdbcBulkTransfer implements Closeable {
+    static final String TEMP_DIR = ".jdbc-transfer";
+    private static final int FILES_PER_TRANSACTION = 1000;
+
+    private final JdbcFileSystem fs;
+    private final JdbcParallelExecutor executor;
+
+    public JdbcBulkTransfer(final JdbcFileSystem fs, final int parallelism) {
+        this.fs = fs;
+        this.executor = new JdbcParallelExecutor(parallelism);
+    }
+
+    /**
+     * 导出到本地目录，本地已有长度与修改时间一致的文件时跳过.
+     *
+     * @param src      导出的目录或文件
+     * @param localDir 本地目录
+     * @return 传输统计
+     * @throws IOException io异常
+     */
+    public Stats exportTo(final Path src, final java.nio.file.Path localDir) throws IOException {
+        final FileStatus status = fs.getFileStatus(src);
+        final java.nio.file.Path tempDir = Files.createDirectories(localDir.resolve(TEMP_DIR));
+        clearTempDir(tempDir);
+        final Stats stats = new Stats();
+        if (status.isDir()) {
+            exportDir(src, localDir, tempDir, stats);
+        } else {
+            exportFile((JdbcFileStatus) status, localDir.resolve(src.getName()), tempDir, stats);
+        }
+        Files.delete(tempDir);
+        return stats;
+    }
+
+    /**
+     * 删除被中断的导出遗留的临时文件.
+     *
+     * @param tempDir 临时目录
+     * @throws IOException io异常
+     */
+    private static void clearTempDir(final java.nio.file.Path tempDir) throws IOException {
+        try (Stream<java.nio.file.Path> files = Files.list(tempDir)) {
+            for (java.nio.file.Path file : files.collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private boolean exportDir(final Path dir, final java.nio.file.Path local, final java.nio.file.Path tempDir,
+                              final Stats stats) throws IOException {
+        Files.createDirectories(local);
+        stats.dirs.increment();
+        executor.invokeAll(Arrays.asList(fs.listStatus(dir)), child -> {
+            final java.nio.file.Path target = local.resolve(child.getPath().getName());
+            return child.isDir() ? exportDir(child.getPath(), target, tempDir, stats)
+                    : exportFile((JdbcFileStatus) child, target, tempDir, stats);
+        });
+        return true;
+    }
+
+    private boolean exportFile(final JdbcFileStatus status, final java.nio.file.Path target,
+                               final java.nio.file.Path tempDir, final Stats stats) throws IOException {
+        final FileTime modified = FileTime.fromMillis(status.getModificationTime());
+        if (Files.isRegularFile(target) && Files.size(target) == status.getLen()
+                && Files.getLastModifiedTime(target).equals(modified)) {
+            stats.skipped.increment();
+            return false;
+        }
+        final java.nio.file.Path temp = tempDir.resolve(UUID.randomUUID().toString());
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                fs.download(status, os);
+            }
+            Files.setLastModifiedTime(temp, modified);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        stats.files.increment();
+        stats.bytes.add(status.getLen());
+        return true;
+    }
+
+    /**
+     * 从本地目录导入，表中已有长度一致且不早于本地文件修改的文件时跳过.
+     *
+     * @param localDir 本地目录
+     * @param dst      导入的目录
+     * @return 传输统计
+     * @throws IOException io异常
+     */
+    public Stats importFrom(final java.nio.file.Path localDir, final Path dst) throws IOException {
+        if (!Files.isDirectory(localDir)) {
+            throw new FileNotFoundException(localDir.toString());
+        }
+        final Stats stats = new Stats();
+        importDir(localDir, dst, stats);
+        return stats;
+    }
+
+    private boolean importDir(final java.nio.file.Path local, final Path dir, final Stats stats) throws IOException {
+        final List<java.nio.file.Path> files = new ArrayList<>();
+        final List<java.nio.file.Path> dirs = new ArrayList<>();
+        try (Stream<java.nio.file.Path> children = Files.list(local)) {
+            for (java.nio.file.Path child : children.collect(Collectors.toList())) {
+                if (Files.isDirectory(child)) {
+                    if (!TEMP_DIR.equals(child.getFileName().toString())) {
+                        dirs.add(child);
+                    }
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            fs.mkdirs(dir);
+        }
+        stats.dirs.increment();
+        final List<Object> tasks = new ArrayList<>(dirs);
+        for (int from = 0; from < files.size(); from += FILES_PER_TRANSACTION) {
+            final List<java.nio.file.Path> batch = files.subList(from, Math.min(files.size(),
+                    from + FILES_PER_TRANSACTION));
+            final List<String> names = new ArrayList<>(batch.size());
+            for (java.nio.file.Path file : batch) {
+                names.add(file.getFileName().toString());
+            }
+            final Map<String, JdbcFileStatus> statuses = fs.createFiles(dir, names);
+            for (java.nio.file.Path file : batch) {
+                tasks.add(new Upload(file, statuses.get(file.getFileName().toString())));
+            }
+        }
+        // 子目录与文件内容一起并行
+        executor.invokeAll(tasks, task -> {
+            if (task instanceof Upload) {
+                return importFile((Upload) task, stats);
+            }
+            final java.nio.file.Path child = (java.nio.file.Path) task;
+            return importDir(child, new Path(dir, child.getFileName().toString()), stats);
+        });
+        return true;
+    }
+
+    private boolean importFile(final Upload upload, final Stats stats) throws IOException {
+        final long size = Files.size(upload.file);
+        if (upload.status.getLen() == size
+                && upload.status.getModificationTime() >= Files.getLastModifiedTime(upload.file).toMillis()) {
+            stats.skipped.increment();
+            return false;
+        }
+        try (InputStream is = Files.newInputStream(upload.file)) {
+            fs.upload(upload.status, is, size);
+        }
+        stats.files.increment();
+        stats.bytes.add(size);
+        return true;
+    }
+
+    /**
+     * 关闭并行任务使用的线程池.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    /**
+     * 命令行入口，文件系统的配置从FLINK_CONF_DIR下的flink-conf.yaml中读取.
+     * <p>
+     * 用法：JdbcBulkTransfer export|import jdbc://table/path local-dir [parallelism]
+     *
+     * @param args 参数
+     * @throws IOException io异常
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 3 || !"export".equals(args[0]) && !"import".equals(args[0])) {
+            System.err.println("Usage: JdbcBulkTransfer export|import jdbc://table/path local-dir [parallelism]");
+            System.exit(1);
+        }
+        FileSystem.initialize(GlobalConfiguration.loadConfiguration(), null);
+        final Path path = new Path(args[1]);
+        final FileSystem fileSystem = path.getFileSystem();
+        if (!(fileSystem instanceof JdbcFileSystem)) {
+            throw new IOException("not a jdbc path: " + path);
+        }
+        final java.nio.file.Path local = java.nio.file.Paths.get(args[2]);
+        try (JdbcBulkTransfer transfer = new JdbcBulkTransfer((JdbcFileSystem) fileSystem,
+                args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors())) {
+            final long start = System.currentTimeMillis();
+            final Stats stats = "export".equals(args[0]) ? transfer.exportTo(path, local)
+                    : transfer.importFrom(local, path);
+            System.out.println(stats + " cost: " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    private static final class Upload {
+        private final java.nio.file.Path file;
+        private final JdbcFileStatus status;
+
+        private Upload(final java.nio.file.Path file, final JdbcFileStatus status) {
+            this.file = file;
+            this.status = status;
+        }
+    }
+
+    /**
+     * 一次传输的统计.
+     */
+    public static final class Stats {
+        private final LongAdder dirs = new LongAdder();
+        private final LongAdder files = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+
+        public long getDirs() {
+            return dirs.sum();
+        }
+
+        public long getFiles() {
+            return files.sum();
+        }
+
+        public long getSkipped() {
+            return skipped.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", Stats.class.getSimpleName() + "[", "]")
+                    .add("dirs=" + dirs)
+                    .add("files=" + files)
+                    .add("skipped=" + skipped)
+                    .add("bytes=" + bytes)
+                    .toString();
+        }
+    }
+}
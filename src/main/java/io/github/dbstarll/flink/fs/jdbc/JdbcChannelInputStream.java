@@ -0,0 +1,205 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.util.IOUtils;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 通过FileChannel按位置读取本地文件.
+ * <p>
+ * 不使用内存映射，流关闭时channel随之关闭，文件删除后磁盘空间立即释放.
+ */
+final class JdbcChannelInputStream extends FSDataInputStream {
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer buffer;
+    private final Closeable release;
+    private long bufferStart;
+    private long pos;
+    private boolean closed;
+
+    /**
+     * 创建流.
+     *
+     * @param channel    文件channel，随流关闭
+     * @param size       文件大小
+     * @param bufferSize 读取缓冲区大小
+     * @param release    流关闭时执行，可以为null
+     */
+    private JdbcChannelInputStream(final FileChannel channel, final long size, final int bufferSize,
+                                   final Closeable release) {
+        this.channel = channel;
+        this.size = size;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.limit(0);
+        this.release = release;
+    }
+
+    /**
+     * 打开本地文件.
+     *
+     * @param file       本地文件
+     * @param size       文件大小
+     * @param bufferSize 读取缓冲区大小
+     * @param release    流关闭时执行，可以为null
+     * @return JdbcChannelInputStream
+     * @throws IOException io异常
+     */
+    static JdbcChannelInputStream open(final Path file, final long size, final int bufferSize,
+                                       final Closeable release) throws IOException {
+        return new JdbcChannelInputStream(FileChannel.open(file, StandardOpenOption.READ), size, bufferSize, release);
+    }
+
+    /**
+     * 将内容一次性写入本地临时文件后读取，读取不占用堆内存.
+     * <p>
+     * 临时文件以DELETE_ON_CLOSE打开，POSIX系统上打开后即被删除，其他系统上在流关闭时删除.
+     *
+     * @param dir        临时文件目录
+     * @param bufferSize 复制和读取时的缓冲区大小
+     * @param is         文件内容
+     * @return JdbcChannelInputStream
+     * @throws IOException io异常
+     */
+    static JdbcChannelInputStream spool(final Path dir, final int bufferSize, final InputStream is)
+            throws IOException {
+        final Path file = Files.createTempFile(dir, "jdbc-spool-", ".tmp");
+        final FileChannel channel;
+        try {
+            try (OutputStream os = Files.newOutputStream(file)) {
+                IOUtils.copyBytes(is, os, bufferSize, true);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        try {
+            return new JdbcChannelInputStream(channel, channel.size(), bufferSize, null);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void seek(final long desired) throws IOException {
+        checkOpen();
+        if (desired < 0 || desired > size) {
+            throw new EOFException("seek out of range[0, " + size + "]: " + desired);
+        }
+        this.pos = desired;
+    }
+
+    @Override
+    public long getPos() {
+        return pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkOpen();
+        if (pos >= size || !fill()) {
+            return -1;
+        }
+        return buffer.get((int) (pos++ - bufferStart)) & 0xff;
+    }
+
+    @Override
+    public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException {
+        checkOpen();
+        if (len == 0) {
+            return 0;
+        } else if (pos >= size) {
+            return -1;
+        }
+        final int total = (int) Math.min(len, size - pos);
+        if (total >= buffer.capacity()) {
+            // 大块读取直接写入目标数组，不经过缓冲区
+            final int read = readFully(ByteBuffer.wrap(b, off, total), pos);
+            if (read <= 0) {
+                return -1;
+            }
+            pos += read;
+            return read;
+        } else if (!fill()) {
+            return -1;
+        }
+        final int offset = (int) (pos - bufferStart);
+        final int count = Math.min(total, buffer.limit() - offset);
+        buffer.position(offset);
+        buffer.get(b, off, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final long skipped = Math.max(0, Math.min(n, size - pos));
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                if (release != null) {
+                    release.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 保证pos位于缓冲区内.
+     *
+     * @return 文件已经提前结束时返回false
+     * @throws IOException io异常
+     */
+    private boolean fill() throws IOException {
+        if (pos >= bufferStart && pos < bufferStart + buffer.limit()) {
+            return true;
+        }
+        buffer.clear();
+        bufferStart = pos;
+        readFully(buffer, pos);
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    private int readFully(final ByteBuffer target, final long position) throws IOException {
+        final int start = target.position();
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position() - start) < 0) {
+                break;
+            }
+        }
+        return target.position() - start;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import java.util.StringJoiner;
+
+/**
+ * 路径下的文件总大小、文件数与目录数，目录数包含目录自身.
+ */
+public final class JdbcContentSummary {
+    private final long length;
+    private final long fileCount;
+    private final long directoryCount;
+
+    JdbcContentSummary(final long length, final long fileCount, final long directoryCount) {
+        this.length = length;
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public long getDirectoryCount() {
+        return directoryCount;
+    }
+
+    JdbcContentSummary add(final JdbcContentSummary other) {
+        return new JdbcContentSummary(length + other.length, fileCount + other.fileCount,
+                directoryCount + other.directoryCount);
+    }
+
+    JdbcContentSummary negate() {
+        return new JdbcContentSummary(-length, -fileCount, -directoryCount);
+    }
+
+    boolean isEmpty() {
+        return length == 0 && fileCount == 0 && directoryCount == 0;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", JdbcContentSummary.class.getSimpleName() + "[", "]")
+                .add("length=" + length)
+                .add("fileCount=" + fileCount)
+                .add("directoryCount=" + directoryCount)
+                .toString();
+    }
+}
@@ -1,64 +1,117 @@
 package io.github.dbstarll.flink.fs.jdbc;
 
 import org.apache.flink.core.fs.FSDataInputStream;
-import org.apache.flink.util.IOUtils;
 
 import javax.annotation.Nonnull;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public final class JdbcFSDataInputStream extends FSDataInputStream {
-    private final ByteArrayInputStream is;
+    private final ByteBuffer[] segments;
+    private final int segmentBits;
+    private final long segmentMask;
     private final long size;
+    private final Closeable resource;
+    private long pos;
+    private boolean closed;
 
-    JdbcFSDataInputStream(final int bufferSize, final InputStream is, final long size) throws IOException {
-        this.is = copy(bufferSize, is);
+    private JdbcFSDataInputStream(final ByteBuffer[] segments, final int segmentBits, final long size,
+                                  final Closeable resource) {
+        this.segments = segments;
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1L << segmentBits) - 1;
         this.size = size;
+        this.resource = resource;
     }
 
-    private static ByteArrayInputStream copy(final int bufferSize, final InputStream is) throws IOException {
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream(bufferSize)) {
-            IOUtils.copyBytes(is, os, bufferSize, true);
-            return new ByteArrayInputStream(os.toByteArray());
+    static JdbcFSDataInputStream copy(final JdbcBufferPool pool, final InputStream is) throws IOException {
+        final JdbcSegmentBuffer buffer = new JdbcSegmentBuffer(pool);
+        try {
+            if (is != null) {
+                buffer.readFrom(is);
+            }
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
         }
+        return new JdbcFSDataInputStream(buffer.segments(), buffer.getSegmentBits(), buffer.size(), buffer);
     }
 
     @Override
-    public void seek(final long desired) {
-        is.reset();
-        //noinspection ResultOfMethodCallIgnored
-        is.skip(desired);
+    public void seek(final long desired) throws IOException {
+        checkOpen();
+        if (desired < 0 || desired > size) {
+            throw new EOFException("seek out of range[0, " + size + "]: " + desired);
+        }
+        this.pos = desired;
     }
 
     @Override
     public long getPos() {
-        return size - available();
+        return pos;
     }
 
     @Override
-    public int read() {
-        return is.read();
+    public int read() throws IOException {
+        checkOpen();
+        if (pos >= size) {
+            return -1;
+        }
+        final int b = segments[(int) (pos >>> segmentBits)].get((int) (pos & segmentMask)) & 0xff;
+        pos++;
+        return b;
     }
 
     @Override
-    public int read(@Nonnull final byte[] b, final int off, final int len) {
-        return is.read(b, off, len);
+    public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException {
+        checkOpen();
+        if (len == 0) {
+            return 0;
+        } else if (pos >= size) {
+            return -1;
+        }
+        final int total = (int) Math.min(len, size - pos);
+        int read = 0;
+        while (read < total) {
+            final ByteBuffer segment = segments[(int) (pos >>> segmentBits)];
+            final int offset = (int) (pos & segmentMask);
+            final int count = Math.min(total - read, segment.limit() - offset);
+            segment.position(offset);
+            segment.get(b, off + read, count);
+            read += count;
+            pos += count;
+        }
+        return total;
     }
 
     @Override
     public long skip(final long n) {
-        return is.skip(n);
+        final long skipped = Math.max(0, Math.min(n, size - pos));
+        pos += skipped;
+        return skipped;
     }
 
     @Override
     public int available() {
-        return is.available();
+        return (int) Math.min(Integer.MAX_VALUE, size - pos);
     }
 
     @Override
     public void close() throws IOException {
-        this.is.close();
+        if (!closed) {
+            closed = true;
+            if (resource != null) {
+                resource.close();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
     }
 }
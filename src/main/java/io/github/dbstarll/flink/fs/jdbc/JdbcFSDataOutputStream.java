@@ -1,52 +1,118 @@
 package io.github.dbstarll.flink.fs.jdbc;
 
-import io.github.dbstarll.flink.fs.jdbc.function.SizeConsumer;
+import io.github.dbstarll.flink.fs.jdbc.function.Consumer;
 import org.apache.flink.core.fs.FSDataOutputStream;
+import org.apache.flink.core.fs.Path;
 
 import javax.annotation.Nonnull;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 
 public final class JdbcFSDataOutputStream extends FSDataOutputStream {
-    private final ByteArrayOutputStream os;
-    private final SizeConsumer<? super InputStream> consumer;
+    private final JdbcSegmentBuffer buffer;
+    private final Path path;
+    private final Consumer<? super JdbcSegmentBuffer> consumer;
+    private final JdbcAsyncUploader uploader;
+    private final Runnable release;
+    private CompletableFuture<Void> upload;
+    private boolean closed;
 
-    JdbcFSDataOutputStream(final int bufferSize, final SizeConsumer<? super InputStream> consumer) {
-        this.os = new ByteArrayOutputStream(bufferSize);
+    /**
+     * 关闭时将缓冲区交给consumer上传，由consumer负责释放缓冲区.
+     *
+     * @param pool     内存段池
+     * @param path     文件路径
+     * @param consumer 上传缓冲区中的内容
+     * @param uploader 异步上传时在后台执行consumer，同步上传时为null
+     */
+    JdbcFSDataOutputStream(final JdbcBufferPool pool, final Path path,
+                           final Consumer<? super JdbcSegmentBuffer> consumer, final JdbcAsyncUploader uploader) {
+        this(pool, path, consumer, uploader, null);
+    }
+
+    /**
+     * 关闭时将缓冲区交给consumer上传，上传结束或者未能开始上传时执行release.
+     *
+     * @param pool     内存段池
+     * @param path     文件路径
+     * @param consumer 上传缓冲区中的内容
+     * @param uploader 异步上传时在后台执行consumer，同步上传时为null
+     * @param release  无论上传成功与否都只执行一次，为null时不执行
+     */
+    JdbcFSDataOutputStream(final JdbcBufferPool pool, final Path path,
+                           final Consumer<? super JdbcSegmentBuffer> consumer, final JdbcAsyncUploader uploader,
+                           final Runnable release) {
+        this.buffer = new JdbcSegmentBuffer(pool);
+        this.path = path;
         this.consumer = consumer;
+        this.uploader = uploader;
+        this.release = release;
     }
 
     @Override
     public long getPos() {
-        return os.size();
+        return buffer.size();
     }
 
     @Override
-    public void flush() throws IOException {
-        os.flush();
+    public void flush() {
     }
 
+    /**
+     * 关闭之后等待本流的异步上传完成，并抛出其失败.
+     *
+     * @throws IOException 本流的上传失败
+     */
     @Override
-    public void sync() {
+    public void sync() throws IOException {
+        if (upload != null) {
+            uploader.await(upload);
+        }
     }
 
     @Override
-    public void write(final int b) {
-        os.write(b);
+    public void write(final int b) throws IOException {
+        checkOpen();
+        buffer.write(b);
     }
 
     @Override
-    public void write(@Nonnull final byte[] b, final int off, final int len) {
-        os.write(b, off, len);
+    public void write(@Nonnull final byte[] b, final int off, final int len) throws IOException {
+        checkOpen();
+        buffer.write(b, off, len);
     }
 
     @Override
     public void close() throws IOException {
-        os.close();
-        try (InputStream fis = new ByteArrayInputStream(os.toByteArray())) {
-            consumer.accept(fis, os.size());
+        if (!closed) {
+            closed = true;
+            if (uploader == null) {
+                try {
+                    consumer.accept(buffer);
+                } finally {
+                    release();
+                }
+            } else {
+                try {
+                    upload = uploader.submit(path, buffer, consumer);
+                } catch (IOException | RuntimeException e) {
+                    release();
+                    throw e;
+                }
+                upload.whenComplete((v, e) -> release());
+            }
+        }
+    }
+
+    private void release() {
+        if (release != null) {
+            release.run();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
         }
     }
 }
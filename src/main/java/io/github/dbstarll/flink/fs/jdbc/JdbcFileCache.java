@@ -0,0 +1,196 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import io.github.dbstarll.flink.fs.jdbc.function.Consumer;
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * TaskManager级别的本地磁盘文件缓存，按LRU淘汰.
+ */
+final class JdbcFileCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcFileCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+    private final long capacity;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> pins = new HashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Path>> loading = new ConcurrentHashMap<>();
+    private long used;
+
+    JdbcFileCache(final Path dir, final long capacity) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.capacity = capacity;
+        restore();
+    }
+
+    /**
+     * 进程重启后复用磁盘上已有的缓存文件，按最后修改时间恢复LRU顺序.
+     */
+    private void restore() throws IOException {
+        final List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else {
+                    files.add(file.toFile());
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(File::lastModified));
+        synchronized (this) {
+            for (File file : files) {
+                entries.put(file.getName(), file.length());
+                used += file.length();
+            }
+            evict();
+        }
+        LOGGER.info("cache restored[" + entries.size() + "]: " + used + " bytes in " + dir);
+    }
+
+    boolean accept(final long size) {
+        return size <= capacity;
+    }
+
+    static String key(final String table, final JdbcFileStatus status) {
+        return table + '-' + status.getId() + '-' + status.getModificationTime() + '-' + status.getLen();
+    }
+
+    /**
+     * 打开缓存文件，未命中时通过loader加载. 同一个key的并发加载只会执行一次.
+     * <p>
+     * 返回的流关闭之前缓存文件不会被淘汰.
+     *
+     * @param key        缓存key，必须包含文件的版本信息
+     * @param size       文件大小
+     * @param loader     写入文件内容
+     * @param bufferSize 读取缓冲区大小
+     * @return 读取缓存文件的流
+     * @throws IOException io异常
+     */
+    FSDataInputStream open(final String key, final long size, final Consumer<OutputStream> loader,
+                           final int bufferSize) throws IOException {
+        Path file = pin(key);
+        while (file == null) {
+            final CompletableFuture<Path> future = new CompletableFuture<>();
+            final CompletableFuture<Path> exists = loading.putIfAbsent(key, future);
+            if (exists != null) {
+                // 加载完成之后可能已经被淘汰，重新尝试
+                join(exists);
+                file = pin(key);
+                continue;
+            }
+            try {
+                file = load(key, size, loader);
+                future.complete(file);
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                loading.remove(key, future);
+            }
+        }
+        try {
+            return JdbcChannelInputStream.open(file, size, bufferSize, () -> unpin(key));
+        } catch (IOException | RuntimeException e) {
+            unpin(key);
+            throw e;
+        }
+    }
+
+    private synchronized Path pin(final String key) {
+        if (entries.get(key) != null) {
+            final Path file = dir.resolve(key);
+            if (Files.exists(file)) {
+                pins.merge(key, 1, Integer::sum);
+                return file;
+            }
+            used -= entries.remove(key);
+        }
+        return null;
+    }
+
+    private synchronized void unpin(final String key) {
+        if (pins.merge(key, -1, Integer::sum) <= 0) {
+            pins.remove(key);
+            evict();
+        }
+    }
+
+    private Path load(final String key, final long size, final Consumer<OutputStream> loader) throws IOException {
+        final Path temp = Files.createTempFile(dir, key, TEMP_SUFFIX);
+        try {
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                loader.accept(os);
+            }
+            final Path file = Files.move(temp, dir.resolve(key),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                final Long previous = entries.put(key, size);
+                used += size - (previous == null ? 0 : previous);
+                pins.merge(key, 1, Integer::sum);
+                evict();
+            }
+            LOGGER.debug("cache loaded: " + key);
+            return file;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的文件，还有流未关闭的文件跳过，在最后一个流关闭时再淘汰.
+     */
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (used > capacity && iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            if (!pins.containsKey(entry.getKey())) {
+                iterator.remove();
+                used -= entry.getValue();
+                try {
+                    Files.deleteIfExists(dir.resolve(entry.getKey()));
+                } catch (IOException e) {
+                    LOGGER.warn("evict cache failed: " + entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    private static Path join(final CompletableFuture<Path> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
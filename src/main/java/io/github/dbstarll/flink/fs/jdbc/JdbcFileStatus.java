@@ -1,75 +1,86 @@
 package io.github.dbstarll.flink.fs.jdbc;
 
 import org.apache.flink.core.fs.BlockLocation;
-import org.apache.flink.core.fs.FileSystem;
 import org.apache.flink.core.fs.LocatedFileStatus;
 import org.apache.flink.core.fs.Path;
 
+import java.net.URI;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.StringJoiner;
 
+import static org.apache.flink.util.Preconditions.checkArgument;
+
 public final class JdbcFileStatus implements LocatedFileStatus {
+    private static final BlockLocation[] NO_LOCATIONS = new BlockLocation[0];
+    private static final boolean[] PLAIN = plain();
+
     private final long id;
     private final long parent;
-    private final Path path;
+    private final String prefix;
+    private final String pathString;
     private final boolean dir;
     private final long len;
+    private final long blockSize;
     private final long created;
     private final long modified;
+    private volatile Path path;
+    private volatile BlockLocation[] locations;
 
-    private JdbcFileStatus(final long id, final long parent, final Path path, final boolean dir,
-                           final long len, final long created, final long modified) {
+    private JdbcFileStatus(final long id, final long parent, final String prefix, final String pathString,
+                           final boolean dir, final long len, final long blockSize, final long created,
+                           final long modified) {
         this.id = id;
         this.parent = parent;
-        this.path = path;
+        this.prefix = prefix;
+        this.pathString = pathString;
         this.dir = dir;
         this.len = len;
+        this.blockSize = blockSize > 0 ? blockSize : len;
         this.created = created;
         this.modified = modified;
     }
 
-    static JdbcFileStatus file(final FileSystem fs, final long id, final long parent, final String path,
+    static JdbcFileStatus file(final JdbcFileSystem fs, final long id, final long parent, final String path,
                                final long len, final long created, final long modified) {
-        return new JdbcFileStatus(
-                id, parent,
-                new Path(fs.getUri().getScheme() + "://" + fs.getUri().getAuthority() + path),
-                false, len,
-                created, modified
-        );
+        return new JdbcFileStatus(id, parent, fs.getPathPrefix(), path, false, len, fs.getBlockSize(), created,
+                modified);
     }
 
-    static JdbcFileStatus dir(final FileSystem fs, final long id, final long parent, final String path,
+    static JdbcFileStatus dir(final JdbcFileSystem fs, final long id, final long parent, final String path,
                               final long created, final long modified) {
-        return new JdbcFileStatus(
-                id, parent,
-                new Path(fs.getUri().getScheme() + "://" + fs.getUri().getAuthority() + path),
-                true, 0,
-                created, modified
-        );
+        return new JdbcFileStatus(id, parent, fs.getPathPrefix(), path, true, 0, 0, created, modified);
     }
 
-    static JdbcFileStatus root(final FileSystem fs) {
+    static JdbcFileStatus root(final JdbcFileSystem fs) {
         return dir(fs, 0, 0, "/", 0, 0);
     }
 
-    static JdbcFileStatus rs(final FileSystem fs, final ResultSet rs) throws SQLException {
-        if (rs.getBoolean("file")) {
+    /**
+     * 按JdbcTable中COLUMNS的列序号读取当前行.
+     *
+     * @param fs 文件系统
+     * @param rs 结果集
+     * @return 文件状态
+     * @throws SQLException sql异常
+     */
+    static JdbcFileStatus rs(final JdbcFileSystem fs, final ResultSet rs) throws SQLException {
+        if (rs.getBoolean(JdbcTable.COLUMN_FILE)) {
             return file(fs,
-                    rs.getLong("id"),
-                    rs.getLong("parent"),
-                    rs.getString("path"),
-                    rs.getLong("len"),
-                    rs.getLong("created"),
-                    rs.getLong("modified")
+                    rs.getLong(JdbcTable.COLUMN_ID),
+                    rs.getLong(JdbcTable.COLUMN_PARENT),
+                    rs.getString(JdbcTable.COLUMN_PATH),
+                    rs.getLong(JdbcTable.COLUMN_LEN),
+                    rs.getLong(JdbcTable.COLUMN_CREATED),
+                    rs.getLong(JdbcTable.COLUMN_MODIFIED)
             );
         } else {
             return dir(fs,
-                    rs.getLong("id"),
-                    rs.getLong("parent"),
-                    rs.getString("path"),
-                    rs.getLong("created"),
-                    rs.getLong("modified")
+                    rs.getLong(JdbcTable.COLUMN_ID),
+                    rs.getLong(JdbcTable.COLUMN_PARENT),
+                    rs.getString(JdbcTable.COLUMN_PATH),
+                    rs.getLong(JdbcTable.COLUMN_CREATED),
+                    rs.getLong(JdbcTable.COLUMN_MODIFIED)
             );
         }
     }
@@ -81,7 +92,7 @@ public final class JdbcFileStatus implements LocatedFileStatus {
 
     @Override
     public long getBlockSize() {
-        return len;
+        return blockSize;
     }
 
     @Override
@@ -104,14 +115,96 @@ public final class JdbcFileStatus implements LocatedFileStatus {
         return dir;
     }
 
+    /**
+     * 第一次调用时才解析出Path，只使用长度等元数据的列表不需要解析.
+     *
+     * @return 完整路径
+     */
     @Override
     public Path getPath() {
-        return path;
+        Path p = path;
+        if (p == null) {
+            // 表中的路径已经规范化，不含需要转义的字符时直接构造URI，省去Path的规范化与URI的二次解析
+            p = isPlain(pathString) ? new Path(URI.create(prefix + pathString)) : new Path(prefix + pathString);
+            path = p;
+        }
+        return p;
+    }
+
+    private static boolean isPlain(final String path) {
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c >= PLAIN.length || !PLAIN[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean[] plain() {
+        final boolean[] plain = new boolean[128];
+        for (char c = '0'; c <= '9'; c++) {
+            plain[c] = true;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            plain[c] = true;
+            plain[Character.toUpperCase(c)] = true;
+        }
+        for (char c : "/-._~!$&'()*+,;=:@".toCharArray()) {
+            plain[c] = true;
+        }
+        return plain;
+    }
+
+    /**
+     * 表中保存的路径，不含scheme与authority.
+     *
+     * @return 路径
+     */
+    String getPathString() {
+        return pathString;
     }
 
     @Override
     public BlockLocation[] getBlockLocations() {
-        return new BlockLocation[]{new JdbcBlockLocation(len)};
+        return getBlockLocations(0, len);
+    }
+
+    /**
+     * 按blockSize对齐切分[start, start + length)覆盖到的块，覆盖整个文件时返回缓存的结果.
+     *
+     * @param start  起始位置
+     * @param length 长度
+     * @return 覆盖到的块，按offset排序
+     */
+    BlockLocation[] getBlockLocations(final long start, final long length) {
+        checkArgument(start >= 0 && length >= 0, "start and length must not be negative");
+        if (start == 0 && length >= len) {
+            BlockLocation[] all = locations;
+            if (all == null) {
+                all = split(0, len);
+                locations = all;
+            }
+            return all;
+        }
+        return split(start, length);
+    }
+
+    private BlockLocation[] split(final long start, final long length) {
+        if (len == 0) {
+            return new BlockLocation[]{new JdbcBlockLocation(0, 0)};
+        } else if (start >= len) {
+            return NO_LOCATIONS;
+        }
+        final long end = length >= len - start ? len : start + length;
+        final long first = start / blockSize;
+        final long last = Math.max(first, (end - 1) / blockSize);
+        final BlockLocation[] blocks = new BlockLocation[(int) (last - first + 1)];
+        for (int i = 0; i < blocks.length; i++) {
+            final long offset = (first + i) * blockSize;
+            blocks[i] = new JdbcBlockLocation(offset, Math.min(blockSize, len - offset));
+        }
+        return blocks;
     }
 
     @Override
@@ -119,7 +212,7 @@ public final class JdbcFileStatus implements LocatedFileStatus {
         return new StringJoiner(", ", JdbcFileStatus.class.getSimpleName() + "[", "]")
                 .add("id=" + id)
                 .add("parent=" + parent)
-                .add("path=" + path)
+                .add("path=" + prefix + pathString)
                 .add("dir=" + dir)
                 .add("len=" + len)
                 .add("created=" + created)
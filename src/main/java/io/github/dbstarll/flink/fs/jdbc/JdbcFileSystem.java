@@ -1,8 +1,10 @@
 package io.github.dbstarll.flink.fs.jdbc;
 
+import io.github.dbstarll.flink.fs.jdbc.function.Consumer;
 import io.github.dbstarll.flink.fs.jdbc.function.Function;
 import io.github.dbstarll.flink.fs.jdbc.function.SizeConsumer;
 import org.apache.flink.core.fs.*;
+import org.apache.flink.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,56 +12,68 @@ import javax.sql.DataSource;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystemLoopException;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.apache.flink.util.Preconditions.checkNotNull;
+import static org.apache.flink.util.Preconditions.checkState;
 
 public final class JdbcFileSystem extends FileSystem {
     private static final Logger LOGGER = LoggerFactory.getLogger(JdbcFileSystem.class);
+    private static final String SQL_STATE_TABLE_NOT_FOUND = "42S02";
 
     private final DataSource dataSource;
+    private final JdbcFileSystemContext context;
+    private final JdbcFileSystemMetrics.Table metrics;
     private final int defaultBufferSize;
     private final URI fsUri;
+    private final String pathPrefix;
     private final JdbcFileStatus root;
 
-    private final String table;
-    private final String sqlGetByPath;
-    private final String sqlGetDataByPath;
-    private final String sqlFindByParent;
-    private final String sqlInsert;
-    private final String sqlUpdateData;
-    private final String sqlUpdateModified;
-    private final String sqlMove;
-    private final String sqlMoveSub;
-    private final String sqlDeleteById;
-    private final String sqlDeleteByPath;
-
-    JdbcFileSystem(final DataSource dataSource, final int defaultBufferSize, final URI fsUri) {
+    private final JdbcTable table;
+    private final int partitionDepth;
+    private final ConcurrentMap<String, JdbcTable> partitions = new ConcurrentHashMap<>();
+    private final Set<String> reserved = ConcurrentHashMap.newKeySet();
+    private final JdbcSummaryRollup summaries;
+
+    JdbcFileSystem(final DataSource dataSource, final int defaultBufferSize, final URI fsUri) throws IOException {
+        this(dataSource, fsUri, JdbcFileSystemContext.of(defaultBufferSize));
+    }
+
+    JdbcFileSystem(final DataSource dataSource, final URI fsUri, final JdbcFileSystemContext context) {
         this.dataSource = dataSource;
-        this.defaultBufferSize = defaultBufferSize;
+        this.context = context;
+        context.retain(this);
+        this.defaultBufferSize = context.getBufferSize();
         this.fsUri = fsUri;
+        this.pathPrefix = fsUri.getScheme() + "://" + fsUri.getAuthority();
         this.root = JdbcFileStatus.root(this);
-        this.table = fsUri.getAuthority();
-        this.sqlGetByPath = "SELECT id,parent,path,file,len,created,modified FROM `" + table + "` WHERE path=?";
-        this.sqlGetDataByPath = "SELECT data,len FROM `" + table + "` WHERE path=? and file=1";
-        this.sqlFindByParent = "SELECT id,parent,path,file,len,created,modified FROM `" + table + "` WHERE parent=?";
-        this.sqlInsert = "INSERT INTO `" + table + "` (parent,name,path,file,created,modified) VALUES (?,?,?,?,?,?)";
-        this.sqlUpdateData = "UPDATE `" + table + "` SET data=?,len=?,modified=? WHERE id=? and file=1";
-        this.sqlUpdateModified = "UPDATE `" + table + "` SET modified=? WHERE id=? and file=0";
-        this.sqlMove = "UPDATE `" + table + "` SET parent=?,name=?,path=? WHERE id=? and parent=? and name=?";
-        this.sqlMoveSub = "UPDATE `" + table + "` SET path=concat(?,SUBSTRING(path,?)) WHERE path LIKE ?";
-        this.sqlDeleteById = "DELETE FROM `" + table + "` WHERE id=?";
-        this.sqlDeleteByPath = "DELETE FROM `" + table + "` WHERE path=? OR path LIKE ?";
+        this.table = new JdbcTable(fsUri.getAuthority(), context);
+        this.metrics = JdbcFileSystemMetrics.get().table(table.getName());
+        this.partitionDepth = context.getPartitionDepth();
+        this.summaries = context.isSummary() ? new JdbcSummaryRollup() : null;
     }
 
     @Override
@@ -85,6 +99,7 @@ public final class JdbcFileSystem extends FileSystem {
         } else if (f.getParent() == null) {
             return root;
         }
+        await(f);
         return connection(false, conn -> {
             final FileStatus status = getFileStatus(conn, f);
             if (status == null) {
@@ -98,9 +113,12 @@ public final class JdbcFileSystem extends FileSystem {
     private JdbcFileStatus getFileStatus(final Connection conn, final Path f) throws IOException {
         if (f.getParent() == null) {
             return root;
+        } else if (!checkPartition(conn, f)) {
+            return null;
         }
-        return statement(conn, sqlGetByPath, false, ps -> {
-            ps.setString(1, f.getPath());
+        final JdbcTable table = table(f);
+        return statement(conn, table.sqlGetByPath, false, ps -> {
+            table.setPath(ps, 1, f.getPath());
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
                     return JdbcFileStatus.rs(this, rs);
@@ -110,15 +128,220 @@ public final class JdbcFileSystem extends FileSystem {
         });
     }
 
+    /**
+     * 批量查询文件状态，在同一个连接上按批执行path IN (...)查询.
+     *
+     * @param paths 待查询的路径
+     * @return 按输入顺序返回每个路径的状态，不存在的路径对应null
+     * @throws IOException io异常
+     */
+    public Map<Path, FileStatus> getFileStatus(final Collection<Path> paths) throws IOException {
+        checkPath(paths.toArray(new Path[0]));
+        final Map<Path, Path> absolutePaths = new LinkedHashMap<>();
+        for (Path f : paths) {
+            final Path absolute = f.isAbsolute() ? f : new Path(getWorkingDirectory(), f);
+            await(absolute);
+            absolutePaths.put(f, absolute);
+        }
+        final Map<String, JdbcFileStatus> found = connection(false, conn -> {
+            final Map<String, JdbcFileStatus> statuses = new HashMap<>();
+            final Map<JdbcTable, List<String>> batches = new LinkedHashMap<>();
+            for (Path f : absolutePaths.values()) {
+                if (f.getParent() == null) {
+                    statuses.put(f.getPath(), root);
+                } else if (checkPartition(conn, f)) {
+                    final JdbcTable table = table(f);
+                    final List<String> batch = batches.computeIfAbsent(table, t -> new ArrayList<>());
+                    batch.add(f.getPath());
+                    if (batch.size() == context.getBatchSize()) {
+                        getFileStatus(conn, table, batch, statuses);
+                    }
+                }
+            }
+            for (Map.Entry<JdbcTable, List<String>> entry : batches.entrySet()) {
+                getFileStatus(conn, entry.getKey(), entry.getValue(), statuses);
+            }
+            return statuses;
+        }, "getFileStatus", Integer.toString(paths.size()));
+        final Map<Path, FileStatus> statuses = new LinkedHashMap<>();
+        for (Map.Entry<Path, Path> entry : absolutePaths.entrySet()) {
+            statuses.put(entry.getKey(), found.get(entry.getValue().getPath()));
+        }
+        return statuses;
+    }
+
+    private void getFileStatus(final Connection conn, final JdbcTable table, final List<String> batch,
+                               final Map<String, JdbcFileStatus> statuses) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        statement(conn, table.sqlGetByPaths(batch.size()), false, ps -> {
+            int parameterIndex = 1;
+            for (String path : batch) {
+                table.setLookupPath(ps, parameterIndex++, path);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    final JdbcFileStatus status = JdbcFileStatus.rs(this, rs);
+                    statuses.put(status.getPathString(), status);
+                }
+            }
+            return statuses.size();
+        });
+        batch.clear();
+    }
+
     @Override
     public BlockLocation[] getFileBlockLocations(final FileStatus file,
                                                  final long start, final long len) throws IOException {
         if (file instanceof JdbcFileStatus) {
-            return ((JdbcFileStatus) file).getBlockLocations();
+            return ((JdbcFileStatus) file).getBlockLocations(start, len);
         }
         throw new IOException("File status does not belong to the JdbcFileStatus: " + file);
     }
 
+    /**
+     * 路径下的文件总大小、文件数与目录数.
+     * <p>
+     * 开启summary时先累加本进程内尚未累加的增量，再读取目录行上维护的汇总，其他进程刚提交的写操作可能尚未计入.
+     * 未开启时遍历整棵子树.
+     *
+     * @param f 路径
+     * @return 汇总
+     * @throws IOException io异常
+     */
+    public JdbcContentSummary getContentSummary(final Path f) throws IOException {
+        checkPath(f);
+        if (!f.isAbsolute()) {
+            return getContentSummary(new Path(getWorkingDirectory(), f));
+        }
+        awaitTree(f);
+        if (summaries != null) {
+            flushSummary(true);
+        }
+        final JdbcContentSummary summary = connection(false, conn -> {
+            final JdbcFileStatus status = getFileStatus(conn, f);
+            if (status == null) {
+                throw new FileNotFoundException(f.toString());
+            } else if (!status.isDir()) {
+                return new JdbcContentSummary(status.getLen(), 1, 0);
+            } else if (!context.isSummary()) {
+                return context.getExecutor() != null ? null : walkSummary(conn, status);
+            } else if (f.getParent() == null) {
+                return statement(conn, table.sqlSumChildren, false, ps -> {
+                    ps.setLong(1, root.getId());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        return new JdbcContentSummary(rs.getLong(1), rs.getLong(2), rs.getLong(3) + 1);
+                    }
+                });
+            }
+            return statement(conn, table(f).sqlGetSummaryById, false, ps -> summary(ps, status));
+        }, "getContentSummary", f.toString());
+        // 并行遍历时每个目录使用各自的连接
+        return summary != null ? summary : walkSummary(f);
+    }
+
+    private JdbcContentSummary walkSummary(final Path dir) throws IOException {
+        final FileStatus[] children = connection(false, conn -> listStatus(conn, dir), "getContentSummary",
+                dir.toString());
+        final List<Path> dirs = new ArrayList<>();
+        JdbcContentSummary summary = new JdbcContentSummary(0, 0, 1);
+        for (FileStatus child : children) {
+            if (child.isDir()) {
+                dirs.add(child.getPath());
+            } else {
+                summary = summary.add(new JdbcContentSummary(child.getLen(), 1, 0));
+            }
+        }
+        for (JdbcContentSummary sub : context.getExecutor().invokeAll(dirs, this::walkSummary)) {
+            summary = summary.add(sub);
+        }
+        return summary;
+    }
+
+    private JdbcContentSummary walkSummary(final Connection conn, final JdbcFileStatus dir) throws IOException {
+        JdbcContentSummary summary = new JdbcContentSummary(0, 0, 1);
+        for (FileStatus child : listStatus(conn, dir.getPath())) {
+            summary = summary.add(child.isDir() ? walkSummary(conn, (JdbcFileStatus) child)
+                    : new JdbcContentSummary(child.getLen(), 1, 0));
+        }
+        return summary;
+    }
+
+    /**
+     * 遍历子树，按子项重新计算其中每个目录的汇总，并把子树根的新旧汇总之差累加到祖先目录上.
+     * <p>
+     * 用于在已有的表上开启summary之后回填（先执行sql/summary.sql增加汇总列），以及修正进程崩溃时尚未累加的增量.
+     * 路径为根目录时逐个重算顶层目录. 应当在子树没有写操作时执行，否则遍历期间的写操作可能被重复计入或遗漏.
+     *
+     * @param f 路径
+     * @return 子树的汇总
+     * @throws IOException io异常
+     */
+    public JdbcContentSummary recomputeSummary(final Path f) throws IOException {
+        checkState(context.isSummary(), "summary is not enabled");
+        checkPath(f);
+        if (!f.isAbsolute()) {
+            return recomputeSummary(new Path(getWorkingDirectory(), f));
+        }
+        awaitTree(f);
+        flushSummary(true);
+        final JdbcFileStatus status = (JdbcFileStatus) getFileStatus(f);
+        if (!status.isDir()) {
+            return new JdbcContentSummary(status.getLen(), 1, 0);
+        } else if (f.getParent() == null) {
+            JdbcContentSummary summary = new JdbcContentSummary(0, 0, 1);
+            for (FileStatus child : listStatus(f)) {
+                summary = summary.add(recomputeSummary(child.getPath()));
+            }
+            return summary;
+        }
+        final JdbcContentSummary summary = rebuildSummary(f);
+        connection(true, conn -> {
+            final JdbcTable table = table(f);
+            final JdbcContentSummary current = summary(conn, table, status);
+            setSummary(conn, table, status, summary);
+            moveSummary(conn, summary.add(current.negate()), null, f.getParent());
+            return null;
+        }, "rollupSummary", f.toString());
+        flushSummary(true);
+        return summary;
+    }
+
+    /**
+     * 按子项重新计算子树中每个子目录的汇总，子目录先于父目录写入.
+     *
+     * @param dir 子树的根目录
+     * @return 子树的汇总
+     * @throws IOException io异常
+     */
+    private JdbcContentSummary rebuildSummary(final Path dir) throws IOException {
+        JdbcContentSummary summary = new JdbcContentSummary(0, 0, 1);
+        for (FileStatus child : listStatus(dir)) {
+            if (child.isDir()) {
+                final JdbcContentSummary sub = rebuildSummary(child.getPath());
+                connection(true, conn -> setSummary(conn, table(child.getPath()), (JdbcFileStatus) child, sub),
+                        "rollupSummary", child.getPath().toString());
+                summary = summary.add(sub);
+            } else {
+                summary = summary.add(new JdbcContentSummary(child.getLen(), 1, 0));
+            }
+        }
+        return summary;
+    }
+
+    private int setSummary(final Connection conn, final JdbcTable table, final JdbcFileStatus dir,
+                           final JdbcContentSummary summary) throws IOException {
+        return statement(conn, table.sqlSetSummaryById, false, ps -> {
+            ps.setLong(1, summary.getLength());
+            ps.setLong(2, summary.getFileCount());
+            ps.setLong(3, summary.getDirectoryCount() - 1);
+            ps.setLong(4, dir.getId());
+            return ps.executeUpdate();
+        });
+    }
+
     @Override
     public FSDataInputStream open(final Path f) throws IOException {
         return open(f, defaultBufferSize);
@@ -130,6 +353,7 @@ public final class JdbcFileSystem extends FileSystem {
         if (!f.isAbsolute()) {
             return open(new Path(getWorkingDirectory(), f));
         }
+        await(f);
         return connection(false, conn -> {
             final FSDataInputStream is = open(conn, f, bufferSize);
             if (is == null) {
@@ -141,19 +365,149 @@ public final class JdbcFileSystem extends FileSystem {
     }
 
     private FSDataInputStream open(final Connection conn, final Path f, final int bufferSize) throws IOException {
-        return statement(conn, sqlGetDataByPath, false, ps -> {
-            ps.setString(1, f.getPath());
+        final JdbcFileCache cache = context.getFileCache();
+        if (cache != null || context.isRanged()) {
+            final JdbcFileStatus status = getFileStatus(conn, f);
+            if (status == null || status.isDir()) {
+                return null;
+            } else if (cache != null && cache.accept(status.getLen())) {
+                return cache.open(JdbcFileCache.key(table(f).getName(), status), status.getLen(),
+                        os -> download(conn, status, os, bufferSize), bufferSize);
+            } else if (context.isRanged(status.getLen())) {
+                return openRanged(conn, status);
+            }
+        } else if (!checkPartition(conn, f)) {
+            return null;
+        }
+        final JdbcTable table = table(f);
+        return statement(conn, table.sqlGetDataByPath, false, ps -> {
+            table.setPath(ps, 1, f.getPath());
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
-                    return new JdbcFSDataInputStream(bufferSize,
-                            rs.getBlob("data").getBinaryStream(),
-                            rs.getLong("len"));
+                    final String ref = table.isTier() ? rs.getString("tier_ref") : null;
+                    if (ref != null) {
+                        metrics.read(rs.getLong("len"));
+                        return context.getTierStorage().open(ref);
+                    }
+                    final Blob data = rs.getBlob("data");
+                    if (data != null) {
+                        metrics.read(rs.getLong("len"));
+                    }
+                    if (data != null && context.isSpool(rs.getLong("len"))) {
+                        return JdbcChannelInputStream.spool(context.getSpoolDir(), bufferSize, data.getBinaryStream());
+                    }
+                    return JdbcFSDataInputStream.copy(context.getBufferPool(),
+                            data == null ? null : data.getBinaryStream());
                 }
                 return null;
             }
         });
     }
 
+    /**
+     * 打开时只读取第一个区间，之后的区间在读取时按需查询.
+     *
+     * @param conn   数据库连接
+     * @param status 文件状态
+     * @return 输入流，文件在读取元数据之后被修改或删除时为null
+     * @throws IOException io异常
+     */
+    private FSDataInputStream openRanged(final Connection conn, final JdbcFileStatus status) throws IOException {
+        final JdbcTable table = table(status.getPath());
+        return statement(conn, table.sqlGetRangeById, false, ps -> {
+            setRange(ps, status, 0, (int) Math.min(context.getRangeSize(), status.getLen()));
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                final String ref = table.isTier() ? rs.getString("tier_ref") : null;
+                if (ref != null) {
+                    metrics.read(status.getLen());
+                    return context.getTierStorage().open(ref);
+                }
+                final byte[] first = rs.getBytes(1);
+                metrics.read(first == null ? 0 : first.length);
+                return new JdbcRangedInputStream(first == null ? new byte[0] : first, status.getLen(),
+                        context.getRangeSize(), context.getReadAhead(), context.getReadAheadExecutor(),
+                        (offset, length) -> readRange(table, status, offset, length));
+            }
+        });
+    }
+
+    private byte[] readRange(final JdbcTable table, final JdbcFileStatus status, final long offset,
+                             final int length) throws IOException {
+        return connection(false, conn -> statement(conn, table.sqlGetRangeById, false, ps -> {
+            setRange(ps, status, offset, length);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    // 文件在打开之后被修改或删除
+                    throw new FileNotFoundException(status.getPath().toString());
+                }
+                final byte[] range = rs.getBytes(1);
+                metrics.read(range == null ? 0 : range.length);
+                return range == null ? new byte[0] : range;
+            }
+        }), "open", status.getPath().toString(), Long.toString(offset));
+    }
+
+    private static void setRange(final PreparedStatement ps, final JdbcFileStatus status, final long offset,
+                                 final int length) throws SQLException {
+        ps.setLong(1, offset + 1);
+        ps.setInt(2, length);
+        ps.setLong(3, status.getId());
+        ps.setLong(4, status.getModificationTime());
+    }
+
+    private void download(final Connection conn, final JdbcFileStatus status, final OutputStream os,
+                          final int bufferSize) throws IOException {
+        final JdbcTable table = table(status.getPath());
+        statement(conn, table.sqlGetDataById, false, ps -> {
+            ps.setLong(1, status.getId());
+            ps.setLong(2, status.getModificationTime());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    // 文件在读取元数据之后被修改或删除
+                    throw new FileNotFoundException(status.getPath().toString());
+                }
+                final String ref = table.isTier() ? rs.getString("tier_ref") : null;
+                final Blob data = rs.getBlob("data");
+                if (ref != null) {
+                    context.getTierStorage().copy(ref, os, bufferSize);
+                } else if (data != null) {
+                    IOUtils.copyBytes(data.getBinaryStream(), os, bufferSize, false);
+                }
+                metrics.read(status.getLen());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 把文件内容直接写入输出流，不在内存中缓冲整个文件.
+     *
+     * @param status 文件状态，文件在此之后被修改或删除时抛出FileNotFoundException
+     * @param os     输出流
+     * @throws IOException io异常
+     */
+    void download(final JdbcFileStatus status, final OutputStream os) throws IOException {
+        connection(false, conn -> {
+            download(conn, status, os, defaultBufferSize);
+            return true;
+        }, "open", status.getPath().toString());
+    }
+
+    /**
+     * 从输入流直接上传文件内容，替换原有内容.
+     *
+     * @param status 文件状态
+     * @param is     文件内容
+     * @param size   内容长度
+     * @throws IOException io异常
+     */
+    void upload(final JdbcFileStatus status, final InputStream is, final long size) throws IOException {
+        uploadFile(status).accept(is, size);
+    }
+
     @Override
     public FileStatus[] listStatus(final Path f) throws IOException {
         checkPath(f);
@@ -170,8 +524,8 @@ public final class JdbcFileSystem extends FileSystem {
         } else if (!status.isDir()) {
             return new FileStatus[]{status};
         }
-        return statement(conn, sqlFindByParent, false, ps -> {
-            ps.setLong(1, status.getId());
+        return statement(conn, childTable(f).sqlFindByParent, false, ps -> {
+            ps.setLong(1, childParent(status));
             final List<FileStatus> statuses = new ArrayList<>();
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -190,17 +544,51 @@ public final class JdbcFileSystem extends FileSystem {
         } else if (f.getParent() == null) {
             throw new IOException("root dir can not delete.");
         }
-        return connection(true, conn -> delete(conn, f, recursive) > 0,
-                "delete", Boolean.toString(recursive), f.toString());
+        discardTree(f);
+        if (summaries != null) {
+            // 被删除的子树的汇总需要包含本进程内尚未累加的增量
+            flushSummary(true);
+        }
+        final List<String> refs = new ArrayList<>();
+        final List<Path> partitionRoots = new ArrayList<>();
+        final boolean deleted = connection(true, conn -> {
+            if (recursive && partitionDepth > 0 && f.depth() <= partitionDepth) {
+                partitionRoots.addAll(partitionRoots(conn, f));
+            }
+            return delete(conn, f, recursive, refs) > 0;
+        }, "delete", Boolean.toString(recursive), f.toString());
+        // 子表与二级存储中的对象都无法回滚，在元数据提交之后删除
+        if (!partitionRoots.isEmpty()) {
+            dropPartitions(partitionRoots);
+        }
+        if (!refs.isEmpty()) {
+            deleteObjects(refs);
+        }
+        if (deleted && !recursive && isPartitionRoot(f)) {
+            dropPartitions(Collections.singletonList(f));
+        }
+        return deleted;
     }
 
-    private int delete(final Connection conn, final Path f, final boolean recursive) throws IOException {
+    private int delete(final Connection conn, final Path f, final boolean recursive,
+                       final List<String> refs) throws IOException {
         final JdbcFileStatus status = getFileStatus(conn, f);
         if (status == null) {
             throw new FileNotFoundException(f.toString());
-        } else if (!status.isDir()) {
+        }
+        final JdbcTable table = table(f);
+        if (context.isSummary()) {
+            moveSummary(conn, summary(conn, table, status), f.getParent(), null);
+        }
+        if (!status.isDir()) {
             // delete file
-            final int count = statement(conn, sqlDeleteById, false, ps -> {
+            if (table.isTier()) {
+                statement(conn, table.sqlGetRefById, false, ps -> {
+                    ps.setLong(1, status.getId());
+                    return refs(ps, refs);
+                });
+            }
+            final int count = statement(conn, table.sqlDeleteById, false, ps -> {
                 ps.setLong(1, status.getId());
                 return ps.executeUpdate();
             });
@@ -208,7 +596,15 @@ public final class JdbcFileSystem extends FileSystem {
             return count;
         } else if (recursive) {
             // 递归删除目录
-            final int count = statement(conn, sqlDeleteByPath, false, ps -> {
+            if (table.isTier() && !table.isPathHash()) {
+                statement(conn, table.sqlFindRefsByPath, false, ps -> {
+                    ps.setString(1, f.getPath());
+                    ps.setString(2, f.getPath() + "/%");
+                    return refs(ps, refs);
+                });
+            }
+            final int count = table.isPathHash() ? deleteTree(conn, table, status, refs)
+                    : statement(conn, table.sqlDeleteByPath, false, ps -> {
                 ps.setString(1, f.getPath());
                 ps.setString(2, f.getPath() + "/%");
                 return ps.executeUpdate();
@@ -217,7 +613,7 @@ public final class JdbcFileSystem extends FileSystem {
             return count;
         } else if (listStatus(conn, f).length == 0) {
             // delete empty dir
-            final int count = statement(conn, sqlDeleteById, false, ps -> {
+            final int count = statement(conn, table.sqlDeleteById, false, ps -> {
                 ps.setLong(1, status.getId());
                 return ps.executeUpdate();
             });
@@ -234,6 +630,7 @@ public final class JdbcFileSystem extends FileSystem {
         if (!f.isAbsolute()) {
             return mkdirs(new Path(getWorkingDirectory(), f));
         }
+        preparePartition(f);
         return connection(true, conn -> mkdirs(conn, f) != null, "mkdirs", f.toString());
     }
 
@@ -246,11 +643,14 @@ public final class JdbcFileSystem extends FileSystem {
                 return parentStatus;
             } else {
                 LOGGER.info("mkdir: " + f);
-                final JdbcFileStatus ns = insert(conn, f, parentStatus.getId(), false);
+                final JdbcFileStatus ns = insert(conn, f, childParent(parentStatus), false);
                 if (parent != null) {
                     //更新父目录的修改时间
                     updateModified(conn, parentStatus, ns.getModificationTime());
                 }
+                if (context.isSummary()) {
+                    moveSummary(conn, new JdbcContentSummary(0, 0, 1), null, parent);
+                }
                 return ns;
             }
         } else if (status.isDir()) {
@@ -266,10 +666,20 @@ public final class JdbcFileSystem extends FileSystem {
         if (!f.isAbsolute()) {
             return create(new Path(getWorkingDirectory(), f), overwriteMode);
         }
-        return connection(true, conn -> create(conn, f, overwriteMode), "create", f.toString());
+        await(f);
+        if (f.getParent() != null) {
+            preparePartition(f.getParent());
+        }
+        if (context.isDeferredCreate()) {
+            return deferredCreate(f, overwriteMode);
+        }
+        return connection(true, conn -> {
+            final JdbcFileStatus status = create(conn, f, overwriteMode);
+            return new JdbcFSDataOutputStream(context.getBufferPool(), f, upload(status), context.getUploader());
+        }, "create", f.toString());
     }
 
-    private FSDataOutputStream create(final Connection conn, final Path f, final WriteMode mode) throws IOException {
+    private JdbcFileStatus create(final Connection conn, final Path f, final WriteMode mode) throws IOException {
         final JdbcFileStatus status = getFileStatus(conn, f);
         if (status == null) {
             if (f.getName().length() == 0) {
@@ -278,21 +688,132 @@ public final class JdbcFileSystem extends FileSystem {
             final Path parent = f.getParent();
             final JdbcFileStatus parentStatus = parent != null ? mkdirs(conn, parent) : root;
             LOGGER.info("create: " + f);
-            final JdbcFileStatus ns = insert(conn, f, parentStatus.getId(), true);
+            final JdbcFileStatus ns = insert(conn, f, childParent(parentStatus), true);
             if (parent != null) {
                 //更新父目录的修改时间
                 updateModified(conn, parentStatus, ns.getModificationTime());
             }
-            return new JdbcFSDataOutputStream(defaultBufferSize, uploadFile(ns));
+            if (context.isSummary()) {
+                moveSummary(conn, new JdbcContentSummary(0, 1, 0), null, parent);
+            }
+            return ns;
         } else if (status.isDir()) {
             throw new FileAlreadyExistsException(f.toString());
         } else if (mode == WriteMode.NO_OVERWRITE) {
             throw new FileAlreadyExistsException(f.toString());
         } else {
-            return new JdbcFSDataOutputStream(defaultBufferSize, uploadFile(status));
+            return status;
+        }
+    }
+
+    /**
+     * 只校验路径并在本进程内预留，文件行与内容在close()时于同一个事务中写入.
+     * <p>
+     * 其他进程在此期间创建了同一个文件时，NO_OVERWRITE模式在close()时抛出FileAlreadyExistsException.
+     * 预留在上传结束或者close()失败时释放，从未close()的输出流会一直占用预留.
+     *
+     * @param f    文件路径
+     * @param mode 写模式
+     * @return 输出流
+     * @throws IOException 路径已存在或者已被预留
+     */
+    private FSDataOutputStream deferredCreate(final Path f, final WriteMode mode) throws IOException {
+        if (f.getName().length() == 0) {
+            throw new IOException("file name not set.");
+        }
+        final JdbcFileStatus status = connection(false, conn -> getFileStatus(conn, f), "create", f.toString());
+        if (status != null && (status.isDir() || mode == WriteMode.NO_OVERWRITE)) {
+            throw new FileAlreadyExistsException(f.toString());
+        }
+        final boolean reserve = mode == WriteMode.NO_OVERWRITE;
+        if (reserve && !reserved.add(f.getPath())) {
+            throw new FileAlreadyExistsException(f.toString());
+        }
+        final Runnable release = reserve ? () -> reserved.remove(f.getPath()) : null;
+        return new JdbcFSDataOutputStream(context.getBufferPool(), f,
+                upload(uploadFile(f, conn -> create(conn, f, mode))), context.getUploader(), release);
+    }
+
+    /**
+     * 在一个事务中批量创建目录下的空文件，目录不存在时先创建，已经存在的文件保持不变.
+     *
+     * @param dir   目录
+     * @param names 文件名
+     * @return 文件名与文件状态，包括已经存在的文件
+     * @throws IOException io异常
+     */
+    Map<String, JdbcFileStatus> createFiles(final Path dir, final Collection<String> names) throws IOException {
+        checkPath(dir);
+        preparePartition(dir);
+        return connection(true, conn -> {
+            final JdbcFileStatus dirStatus = mkdirs(conn, dir);
+            final JdbcTable table = childTable(dir);
+            final Map<String, JdbcFileStatus> statuses = new HashMap<>();
+            final List<String> paths = new ArrayList<>(names.size());
+            for (String name : names) {
+                paths.add(new Path(dir, name).getPath());
+            }
+            findFiles(conn, table, paths, statuses);
+            final List<String> missing = new ArrayList<>();
+            for (String path : paths) {
+                if (!statuses.containsKey(path)) {
+                    missing.add(path);
+                }
+            }
+            if (!missing.isEmpty()) {
+                final long now = System.currentTimeMillis();
+                insertFiles(conn, table, childParent(dirStatus), missing, now);
+                if (dir.getParent() != null) {
+                    //更新父目录的修改时间
+                    updateModified(conn, dirStatus, now);
+                }
+                if (context.isSummary()) {
+                    moveSummary(conn, new JdbcContentSummary(0, missing.size(), 0), null, dir);
+                }
+                findFiles(conn, table, missing, statuses);
+            }
+            final Map<String, JdbcFileStatus> files = new LinkedHashMap<>();
+            for (String path : paths) {
+                final JdbcFileStatus status = statuses.get(path);
+                if (status == null || status.isDir()) {
+                    throw new FileAlreadyExistsException(path);
+                }
+                files.put(status.getPath().getName(), status);
+            }
+            return files;
+        }, "createFiles", dir.toString(), Integer.toString(names.size()));
+    }
+
+    private void findFiles(final Connection conn, final JdbcTable table, final List<String> paths,
+                           final Map<String, JdbcFileStatus> statuses) throws IOException {
+        for (int from = 0; from < paths.size(); from += table.getBatchSize()) {
+            getFileStatus(conn, table, new ArrayList<>(paths.subList(from,
+                    Math.min(paths.size(), from + table.getBatchSize()))), statuses);
         }
     }
 
+    private void insertFiles(final Connection conn, final JdbcTable table, final long parentId,
+                             final List<String> paths, final long now) throws IOException {
+        statement(conn, table.sqlInsert, false, ps -> {
+            for (int i = 0; i < paths.size(); i++) {
+                final String path = paths.get(i);
+                int parameterIndex = 1;
+                ps.setLong(parameterIndex++, parentId);
+                ps.setString(parameterIndex++, path.substring(path.lastIndexOf(Path.SEPARATOR) + 1));
+                parameterIndex = table.setPath(ps, parameterIndex, path);
+                ps.setBoolean(parameterIndex++, true);
+                ps.setLong(parameterIndex++, now);
+                ps.setLong(parameterIndex, now);
+                ps.addBatch();
+                if ((i + 1) % table.getBatchSize() == 0 || i == paths.size() - 1) {
+                    ps.executeBatch();
+                }
+            }
+            LOGGER.info("create files[" + paths.size() + "] in parent: " + parentId);
+            return paths.size();
+        });
+    }
+
     @Override
     public boolean rename(final Path src, final Path dst) throws IOException {
         checkPath(src, dst);
@@ -301,6 +822,13 @@ public final class JdbcFileSystem extends FileSystem {
         } else if (!dst.isAbsolute()) {
             return rename(src, new Path(getWorkingDirectory(), dst));
         }
+        awaitTree(src);
+        if (dst.getParent() != null) {
+            preparePartition(dst.getParent());
+        }
+        if (summaries != null) {
+            flushSummary(true);
+        }
         return connection(true, conn -> rename(conn, src, dst) > 0,
                 "rename", src.toString(), dst.toString());
     }
@@ -321,9 +849,14 @@ public final class JdbcFileSystem extends FileSystem {
                 // move dir to dir
                 final JdbcFileStatus dstDir = dstStatus == null ? mkdirs(conn, dst.getParent()) : dstStatus;
                 final String dstName = (dstStatus != null || dst.getName().length() == 0 ? src : dst).getName();
-                if (dstDir.getId() == srcStatus.getParent() && dstName.equals(src.getName())) {
+                final Path target = new Path(dstDir.getPath(), dstName);
+                if (target.getPath().equals(src.getPath())) {
                     return 0; // not change
                 } else {
+                    checkMove(srcStatus, target);
+                    if (context.isSummary()) {
+                        moveSummary(conn, summary(conn, table(src), srcStatus), src.getParent(), dstDir.getPath());
+                    }
                     return move(conn, srcStatus, dstDir, dstName) + moveSub(conn, srcStatus, dstDir, dstName);
                 }
             }
@@ -333,14 +866,32 @@ public final class JdbcFileSystem extends FileSystem {
             // move file to dir
             final JdbcFileStatus dstDir = dstStatus == null ? mkdirs(conn, dst.getParent()) : dstStatus;
             final String dstName = (dstStatus != null || dst.getName().length() == 0 ? src : dst).getName();
-            if (dstDir.getId() == srcStatus.getParent() && dstName.equals(src.getName())) {
+            final Path target = new Path(dstDir.getPath(), dstName);
+            if (target.getPath().equals(src.getPath())) {
                 return 0; // not change
             } else {
+                checkMove(srcStatus, target);
+                if (context.isSummary()) {
+                    moveSummary(conn, summary(conn, table(src), srcStatus), src.getParent(), dstDir.getPath());
+                }
                 return move(conn, srcStatus, dstDir, dstName);
             }
         }
     }
 
+    long getBlockSize() {
+        return context.getBlockSize();
+    }
+
+    /**
+     * 所有文件状态共享的路径前缀，形如jdbc://table.
+     *
+     * @return 路径前缀
+     */
+    String getPathPrefix() {
+        return pathPrefix;
+    }
+
     @Override
     public boolean isDistributedFS() {
         return true;
@@ -351,12 +902,49 @@ public final class JdbcFileSystem extends FileSystem {
         return FileSystemKind.OBJECT_STORE;
     }
 
+    /**
+     * 等待此前所有异步上传提交到数据库，并抛出其中尚未报告过的失败，然后累加本进程内尚未累加的目录汇总.
+     * 未开启异步上传与summary时直接返回.
+     *
+     * @throws IOException 存在失败的异步上传，或者累加汇总失败
+     */
+    public void flush() throws IOException {
+        final JdbcAsyncUploader uploader = context.getUploader();
+        if (uploader != null) {
+            uploader.flush();
+        }
+        if (summaries != null) {
+            flushSummary(true);
+        }
+    }
+
+    private void await(final Path f) throws IOException {
+        final JdbcAsyncUploader uploader = context.getUploader();
+        if (uploader != null) {
+            uploader.await(f);
+        }
+    }
+
+    private void awaitTree(final Path f) throws IOException {
+        final JdbcAsyncUploader uploader = context.getUploader();
+        if (uploader != null) {
+            uploader.awaitTree(f);
+        }
+    }
+
+    private void discardTree(final Path f) throws IOException {
+        final JdbcAsyncUploader uploader = context.getUploader();
+        if (uploader != null) {
+            uploader.discardTree(f);
+        }
+    }
+
     private void checkPath(final Path... paths) throws IOException {
         checkNotNull(paths, "paths is null");
         int i = 0;
         for (Path f : paths) {
             checkNotNull(f, "paths[" + i + "] is null");
-            if (!table.equals(f.toUri().getAuthority())) {
+            if (!table.getName().equals(f.toUri().getAuthority())) {
                 throw new IOException("paths[" + i + "]'s table unknown: " + f.toUri().getAuthority());
             }
         }
@@ -365,26 +953,49 @@ public final class JdbcFileSystem extends FileSystem {
     private <R> R connection(final boolean transaction, final Function<Connection, R> function,
                              final String... title) throws IOException {
         final long start = System.currentTimeMillis();
-        try (Connection conn = dataSource.getConnection()) {
+        final R res;
+        boolean staged = false;
+        try (JdbcFileSystemMetrics.Scope scope = metrics.start(title[0]);
+             Connection conn = metrics.getConnection(dataSource)) {
             if (!transaction) {
-                return function.apply(conn);
+                res = function.apply(conn);
+                scope.succeeded();
             } else {
                 conn.setAutoCommit(false);
                 try {
-                    final R res = function.apply(conn);
+                    res = function.apply(conn);
+                    metrics.roundTrip();
                     conn.commit();
-                    return res;
+                    scope.succeeded();
                 } catch (Throwable e) {
+                    if (summaries != null) {
+                        summaries.rollback(conn);
+                    }
+                    metrics.rollback();
                     conn.rollback();
                     throw e;
                 }
+                staged = summaries != null && summaries.commit(conn);
             }
         } catch (SQLException e) {
+            invalidatePartitions(e);
             throw new IOException(e);
+        } catch (IOException e) {
+            invalidatePartitions(e.getCause());
+            throw e;
         } finally {
             LOGGER.debug("connection[" + transaction + "] cost: " + (System.currentTimeMillis() - start)
                     + " " + Arrays.toString(title));
         }
+        if (staged) {
+            // 写操作已经成功，累加汇总的失败只记录日志，增量保留到下一次累加
+            try {
+                flushSummary(false);
+            } catch (IOException e) {
+                LOGGER.warn("rollup summary failed: " + Arrays.toString(title), e);
+            }
+        }
+        return res;
     }
 
 
@@ -392,6 +1003,7 @@ public final class JdbcFileSystem extends FileSystem {
                                    final Function<PreparedStatement, R> function) throws IOException {
         try (PreparedStatement ps = conn.prepareStatement(sql,
                 generatedKeys ? PreparedStatement.RETURN_GENERATED_KEYS : PreparedStatement.NO_GENERATED_KEYS)) {
+            JdbcFileSystemMetrics.get().roundTrip();
             return function.apply(ps);
         } catch (SQLException e) {
             throw new IOException(e);
@@ -400,12 +1012,13 @@ public final class JdbcFileSystem extends FileSystem {
 
     private JdbcFileStatus insert(final Connection conn, final Path f, final long parentId,
                                   final boolean isFile) throws IOException {
-        return statement(conn, sqlInsert, true, ps -> {
+        final JdbcTable table = table(f);
+        return statement(conn, table.sqlInsert, true, ps -> {
             final long now = System.currentTimeMillis();
             int parameterIndex = 1;
             ps.setLong(parameterIndex++, parentId);
             ps.setString(parameterIndex++, f.getName());
-            ps.setString(parameterIndex++, f.getPath());
+            parameterIndex = table.setPath(ps, parameterIndex, f.getPath());
             ps.setBoolean(parameterIndex++, isFile);
             ps.setLong(parameterIndex++, now);
             ps.setLong(parameterIndex, now);
@@ -426,7 +1039,7 @@ public final class JdbcFileSystem extends FileSystem {
 
     private void updateModified(final Connection conn, final JdbcFileStatus status,
                                 final long modified) throws IOException {
-        statement(conn, sqlUpdateModified, false, ps -> {
+        statement(conn, table(status.getPath()).sqlUpdateModified, false, ps -> {
             ps.setLong(1, modified);
             ps.setLong(2, status.getId());
             return ps.executeUpdate() > 0;
@@ -436,11 +1049,12 @@ public final class JdbcFileSystem extends FileSystem {
     private int move(final Connection conn, final JdbcFileStatus src, final JdbcFileStatus dstDir,
                      final String dstName) throws IOException {
         final Path dst = new Path(dstDir.getPath(), dstName);
-        final int count = statement(conn, sqlMove, false, ps -> {
+        final JdbcTable table = table(dst);
+        final int count = statement(conn, table.sqlMove, false, ps -> {
             int parameterIndex = 1;
-            ps.setLong(parameterIndex++, dstDir.getId());
+            ps.setLong(parameterIndex++, childParent(dstDir));
             ps.setString(parameterIndex++, dstName);
-            ps.setString(parameterIndex++, dst.getPath());
+            parameterIndex = table.setPath(ps, parameterIndex, dst.getPath());
             ps.setLong(parameterIndex++, src.getId());
             ps.setLong(parameterIndex++, src.getParent());
             ps.setString(parameterIndex, src.getPath().getName());
@@ -453,7 +1067,9 @@ public final class JdbcFileSystem extends FileSystem {
     private int moveSub(final Connection conn, final JdbcFileStatus src, final JdbcFileStatus dstDir,
                         final String dstName) throws IOException {
         final Path dst = new Path(dstDir.getPath(), dstName);
-        final int count = statement(conn, sqlMoveSub, false, ps -> {
+        final JdbcTable table = table(dst);
+        final int count = table.isPathHash() ? moveTree(conn, table, src, dst)
+                : statement(conn, table.sqlMoveSub, false, ps -> {
             int parameterIndex = 1;
             ps.setString(parameterIndex++, dst.getPath());
             ps.setInt(parameterIndex++, src.getPath().getPath().length() + 1);
@@ -464,15 +1080,480 @@ public final class JdbcFileSystem extends FileSystem {
         return count;
     }
 
-    private SizeConsumer<? super InputStream> uploadFile(final JdbcFileStatus status) {
-        return (is, size) -> connection(true, conn -> statement(conn, sqlUpdateData, false, ps -> {
-            final long now = System.currentTimeMillis();
-            int parameterIndex = 1;
-            ps.setBlob(parameterIndex++, is);
-            ps.setLong(parameterIndex++, size);
-            ps.setLong(parameterIndex++, now);
-            ps.setLong(parameterIndex, status.getId());
-            return ps.executeUpdate() > 0;
-        }), "uploadFile", status.getPath().toString());
+    /**
+     * 沿parent索引逐层查询同一张表中目录下的所有子孙.
+     *
+     * @param conn  数据库连接
+     * @param table 目录所在的表
+     * @param dir   目录
+     * @return 所有子孙，父目录先于子节点
+     * @throws IOException io异常
+     */
+    private List<JdbcFileStatus> descendants(final Connection conn, final JdbcTable table,
+                                             final JdbcFileStatus dir) throws IOException {
+        final List<JdbcFileStatus> descendants = new ArrayList<>();
+        List<Long> parents = Collections.singletonList(dir.getId());
+        while (!parents.isEmpty()) {
+            final List<Long> children = new ArrayList<>();
+            for (int from = 0; from < parents.size(); from += table.getBatchSize()) {
+                final List<Long> batch = parents.subList(from, Math.min(parents.size(), from + table.getBatchSize()));
+                statement(conn, table.sqlFindByParents(batch.size()), false, ps -> {
+                    int parameterIndex = 1;
+                    for (Long parent : batch) {
+                        ps.setLong(parameterIndex++, parent);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            final JdbcFileStatus status = JdbcFileStatus.rs(this, rs);
+                            descendants.add(status);
+                            if (status.isDir()) {
+                                children.add(status.getId());
+                            }
+                        }
+                    }
+                    return children.size();
+                });
+            }
+            parents = children;
+        }
+        return descendants;
+    }
+
+    private int moveTree(final Connection conn, final JdbcTable table, final JdbcFileStatus src,
+                         final Path dst) throws IOException {
+        final int prefixLength = src.getPath().getPath().length();
+        final List<JdbcFileStatus> descendants = descendants(conn, table, src);
+        return statement(conn, table.sqlMoveById, false, ps -> {
+            int count = 0;
+            for (int i = 0; i < descendants.size(); i++) {
+                final JdbcFileStatus status = descendants.get(i);
+                final String path = dst.getPath() + status.getPathString().substring(prefixLength);
+                table.setPath(ps, 1, path);
+                ps.setLong(3, status.getId());
+                ps.addBatch();
+                if ((i + 1) % table.getBatchSize() == 0 || i == descendants.size() - 1) {
+                    for (int updated : ps.executeBatch()) {
+                        count += Math.max(0, updated);
+                    }
+                }
+            }
+            return count;
+        });
+    }
+
+    private int deleteTree(final Connection conn, final JdbcTable table, final JdbcFileStatus dir,
+                           final List<String> refs) throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        ids.add(dir.getId());
+        if (!isPartitionRoot(dir.getPath())) {
+            // 分区根的子孙在子表中，随子表一起删除
+            for (JdbcFileStatus status : descendants(conn, table, dir)) {
+                ids.add(status.getId());
+            }
+        }
+        int count = 0;
+        for (int from = 0; from < ids.size(); from += table.getBatchSize()) {
+            final List<Long> batch = ids.subList(from, Math.min(ids.size(), from + table.getBatchSize()));
+            if (table.isTier()) {
+                statement(conn, table.sqlFindRefsByIds(batch.size()), false, ps -> {
+                    int parameterIndex = 1;
+                    for (Long id : batch) {
+                        ps.setLong(parameterIndex++, id);
+                    }
+                    return refs(ps, refs);
+                });
+            }
+            count += statement(conn, table.sqlDeleteByIds(batch.size()), false, ps -> {
+                int parameterIndex = 1;
+                for (Long id : batch) {
+                    ps.setLong(parameterIndex++, id);
+                }
+                return ps.executeUpdate();
+            });
+        }
+        return count;
+    }
+
+    private static int refs(final PreparedStatement ps, final List<String> refs) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                final String ref = rs.getString(1);
+                if (ref != null) {
+                    refs.add(ref);
+                }
+            }
+        }
+        return refs.size();
+    }
+
+    private JdbcFileStatus lock(final Connection conn, final JdbcTable table, final long id) throws IOException {
+        return statement(conn, table.sqlLockById, false, ps -> {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? JdbcFileStatus.rs(this, rs) : null;
+            }
+        });
+    }
+
+    /**
+     * 锁定并读取文件或目录自身的汇总.
+     *
+     * @param conn   数据库连接
+     * @param table  所在的表
+     * @param status 文件或目录
+     * @return 汇总
+     * @throws IOException io异常
+     */
+    private JdbcContentSummary summary(final Connection conn, final JdbcTable table,
+                                       final JdbcFileStatus status) throws IOException {
+        if (!status.isDir()) {
+            final JdbcFileStatus current = lock(conn, table, status.getId());
+            return new JdbcContentSummary(current == null ? 0 : current.getLen(), 1, 0);
+        }
+        return statement(conn, table.sqlLockSummaryById, false, ps -> summary(ps, status));
+    }
+
+    private static JdbcContentSummary summary(final PreparedStatement ps, final JdbcFileStatus dir)
+            throws SQLException, FileNotFoundException {
+        ps.setLong(1, dir.getId());
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) {
+                throw new FileNotFoundException(dir.getPath().toString());
+            }
+            return new JdbcContentSummary(rs.getLong("sum_len"), rs.getLong("sum_files"), rs.getLong("sum_dirs") + 1);
+        }
+    }
+
+    /**
+     * 从from的祖先目录中减去汇总，并加到to的祖先目录上，共同的祖先不变.
+     * <p>
+     * 增量在事务提交之后才累加到祖先目录上，见{@link JdbcSummaryRollup}.
+     *
+     * @param conn    数据库连接
+     * @param summary 汇总
+     * @param from    原来所在的目录，为null时只增加
+     * @param to      新的目录，为null时只减去
+     */
+    private void moveSummary(final Connection conn, final JdbcContentSummary summary, final Path from,
+                             final Path to) {
+        if (from != null) {
+            summaries.stage(conn, from, summary.negate());
+        }
+        if (to != null) {
+            summaries.stage(conn, to, summary);
+        }
+    }
+
+    /**
+     * 在一个事务中把尚未累加的增量累加到目录上.
+     * <p>
+     * 先更新主表再按表名更新各个分区表，同一张表内按路径排序逐行更新，祖先目录总是先于子目录加锁，
+     * 多个进程同时累加时以相同的顺序加锁.
+     *
+     * @param wait 已有线程在累加时是否等待
+     * @throws IOException 累加失败
+     */
+    private void flushSummary(final boolean wait) throws IOException {
+        summaries.flush(wait, deltas -> {
+            final Map<JdbcTable, Map<String, JdbcContentSummary>> batches = new TreeMap<>(
+                    Comparator.comparing((JdbcTable t) -> t != table).thenComparing(JdbcTable::getName));
+            for (Map.Entry<Path, JdbcContentSummary> entry : deltas.entrySet()) {
+                batches.computeIfAbsent(table(entry.getKey()), t -> new TreeMap<>())
+                        .put(entry.getKey().getPath(), entry.getValue());
+            }
+            connection(true, conn -> {
+                for (Map.Entry<JdbcTable, Map<String, JdbcContentSummary>> entry : batches.entrySet()) {
+                    updateSummary(conn, entry.getKey(), entry.getValue());
+                }
+                return batches.size();
+            }, "rollupSummary", Integer.toString(deltas.size()));
+        });
+    }
+
+    private void updateSummary(final Connection conn, final JdbcTable table,
+                               final Map<String, JdbcContentSummary> deltas) throws IOException {
+        try {
+            statement(conn, table.sqlUpdateSummary, false, ps -> {
+                for (Map.Entry<String, JdbcContentSummary> entry : deltas.entrySet()) {
+                    final JdbcContentSummary delta = entry.getValue();
+                    ps.setLong(1, delta.getLength());
+                    ps.setLong(2, delta.getFileCount());
+                    ps.setLong(3, delta.getDirectoryCount());
+                    table.setPath(ps, 4, entry.getKey());
+                    ps.addBatch();
+                }
+                return ps.executeBatch();
+            });
+        } catch (IOException e) {
+            if (!isTableNotFound(e.getCause())) {
+                throw e;
+            }
+            // 分区已经被删除，其中的目录也就不再需要汇总
+            invalidatePartitions(e.getCause());
+            LOGGER.info("skip summary of dropped partition: " + table);
+        }
+    }
+
+    private boolean isPartitionRoot(final Path f) {
+        return partitionDepth > 0 && f.depth() == partitionDepth;
+    }
+
+    /**
+     * 路径所在的表，深度超过partitionDepth的路径存放在其分区根的子表中.
+     *
+     * @param f 路径
+     * @return 路径所在的表
+     */
+    private JdbcTable table(final Path f) {
+        return partitionDepth > 0 && f.depth() > partitionDepth ? partition(f) : table;
+    }
+
+    /**
+     * 目录的子节点所在的表.
+     *
+     * @param dir 目录
+     * @return 子节点所在的表
+     */
+    private JdbcTable childTable(final Path dir) {
+        return partitionDepth > 0 && dir.depth() >= partitionDepth ? partition(dir) : table;
+    }
+
+    /**
+     * 子节点的parent列，分区根的子节点在子表中的parent为0.
+     *
+     * @param dir 目录
+     * @return 子节点的parent列
+     */
+    private long childParent(final JdbcFileStatus dir) {
+        return isPartitionRoot(dir.getPath()) ? 0 : dir.getId();
+    }
+
+    private JdbcTable partition(final Path f) {
+        final String key = partitionRoot(f).getPath();
+        final JdbcTable partition = partitions.get(key);
+        return partition != null ? partition
+                : new JdbcTable(table.getName() + "_" + Long.toHexString(JdbcTable.pathHash(key)), context);
+    }
+
+    /**
+     * 读取分区中的路径之前检查分区根是否存在，分区根存在时其子表必定已经创建.
+     *
+     * @param conn 数据库连接
+     * @param f    路径
+     * @return 路径所在的表是否存在
+     * @throws IOException io异常
+     */
+    private boolean checkPartition(final Connection conn, final Path f) throws IOException {
+        if (partitionDepth <= 0 || f.depth() <= partitionDepth) {
+            return true;
+        }
+        final Path partitionRoot = partitionRoot(f);
+        if (partitions.containsKey(partitionRoot.getPath())) {
+            return true;
+        }
+        final JdbcFileStatus status = getFileStatus(conn, partitionRoot);
+        if (status != null && status.isDir()) {
+            partitions.putIfAbsent(partitionRoot.getPath(), partition(f));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 其他进程删除分区之后，本进程缓存的子表已经不存在. 清空缓存，下一次操作重新检查或创建子表.
+     *
+     * @param e 异常
+     */
+    private void invalidatePartitions(final Throwable e) {
+        if (partitionDepth > 0 && isTableNotFound(e)) {
+            partitions.clear();
+        }
+    }
+
+    private static boolean isTableNotFound(final Throwable e) {
+        return e instanceof SQLException && SQL_STATE_TABLE_NOT_FOUND.equals(((SQLException) e).getSQLState());
+    }
+
+    private Path partitionRoot(final Path f) {
+        Path partitionRoot = f;
+        while (partitionRoot.depth() > partitionDepth) {
+            partitionRoot = partitionRoot.getParent();
+        }
+        return partitionRoot;
+    }
+
+    /**
+     * 在写入之前创建目录所在或其子节点所在的子表. DDL会隐式提交事务，因此在独立的连接上执行.
+     *
+     * @param dir 将要创建或写入的目录
+     * @throws IOException io异常
+     */
+    private void preparePartition(final Path dir) throws IOException {
+        if (partitionDepth <= 0 || dir.depth() < partitionDepth) {
+            return;
+        }
+        final String key = partitionRoot(dir).getPath();
+        if (!partitions.containsKey(key)) {
+            final JdbcTable partition = partition(dir);
+            final String ddl = context.getPartitionDdl(table.getName(), partition.getName());
+            connection(false, conn -> statement(conn, ddl, false, ps -> ps.execute()), "partition", key);
+            partitions.putIfAbsent(key, partition);
+        }
+    }
+
+    /**
+     * 目录自身或其下所有的分区根.
+     *
+     * @param conn 数据库连接
+     * @param dir  目录
+     * @return 分区根
+     * @throws IOException io异常
+     */
+    private List<Path> partitionRoots(final Connection conn, final Path dir) throws IOException {
+        final JdbcFileStatus status = getFileStatus(conn, dir);
+        if (status == null || !status.isDir()) {
+            return Collections.emptyList();
+        } else if (isPartitionRoot(dir)) {
+            return Collections.singletonList(dir);
+        }
+        final List<Path> partitionRoots = new ArrayList<>();
+        for (JdbcFileStatus descendant : descendants(conn, table, status)) {
+            if (descendant.isDir() && isPartitionRoot(descendant.getPath())) {
+                partitionRoots.add(descendant.getPath());
+            }
+        }
+        return partitionRoots;
+    }
+
+    private void dropPartitions(final List<Path> partitionRoots) throws IOException {
+        final JdbcParallelExecutor executor = context.getExecutor();
+        if (executor != null && partitionRoots.size() > 1) {
+            executor.invokeAll(partitionRoots, this::dropPartition);
+        } else {
+            for (Path partitionRoot : partitionRoots) {
+                dropPartition(partitionRoot);
+            }
+        }
+    }
+
+    private boolean dropPartition(final Path partitionRoot) throws IOException {
+        final JdbcTable partition = partition(partitionRoot);
+        partitions.remove(partitionRoot.getPath());
+        connection(false, conn -> statement(conn, "DROP TABLE IF EXISTS `" + partition.getName() + "`", false,
+                ps -> ps.execute()), "partition", partitionRoot.toString());
+        LOGGER.info("drop partition[" + partition + "]: " + partitionRoot);
+        if (context.getTierStorage() != null) {
+            context.getTierStorage().deleteTable(partition.getName());
+        }
+        return true;
+    }
+
+    /**
+     * 删除二级存储中已经不再被引用的对象，配置了并行执行器时并行删除.
+     *
+     * @param refs 对象的引用
+     * @throws IOException 等待删除时失败
+     */
+    private void deleteObjects(final List<String> refs) throws IOException {
+        final JdbcTierStorage tier = context.getTierStorage();
+        final JdbcParallelExecutor executor = context.getExecutor();
+        if (executor != null && refs.size() > 1) {
+            executor.invokeAll(refs, ref -> {
+                tier.delete(ref);
+                return ref;
+            });
+        } else {
+            tier.delete(refs);
+        }
+    }
+
+    private void checkMove(final JdbcFileStatus src, final Path dst) throws IOException {
+        if (partitionDepth <= 0) {
+            return;
+        } else if (src.isDir() && src.getPath().depth() <= partitionDepth) {
+            throw new IOException("partition dir can not rename: " + src.getPath());
+        } else if (!table(src.getPath()).getName().equals(table(dst).getName())) {
+            throw new IOException("can not rename across partitions: " + src.getPath() + " to: " + dst);
+        }
+    }
+
+    private Consumer<JdbcSegmentBuffer> upload(final JdbcFileStatus status) {
+        return upload(uploadFile(status));
+    }
+
+    private Consumer<JdbcSegmentBuffer> upload(final SizeConsumer<InputStream> uploadFile) {
+        return buffer -> {
+            try (InputStream is = buffer.toInputStream()) {
+                uploadFile.accept(is, buffer.size());
+            } finally {
+                buffer.close();
+            }
+        };
+    }
+
+    private SizeConsumer<InputStream> uploadFile(final JdbcFileStatus status) {
+        return uploadFile(status.getPath(), conn -> status);
+    }
+
+    /**
+     * 上传文件内容.
+     *
+     * @param f      文件路径
+     * @param locate 在上传的事务中确定文件行，延迟创建时在此插入文件行
+     * @return 上传函数
+     */
+    private SizeConsumer<InputStream> uploadFile(final Path f, final Function<Connection, JdbcFileStatus> locate) {
+        final JdbcTable table = table(f);
+        final JdbcTierStorage tier = context.getTierStorage();
+        return (is, size) -> {
+            final String ref = tier != null && tier.accept(size) ? tier.write(table.getName(), is, defaultBufferSize)
+                    : null;
+            // 提交后不再被引用的对象：覆盖前的旧内容，或者文件已被删除时新写入的内容
+            final List<String> obsolete = new ArrayList<>();
+            try {
+                connection(true, conn -> {
+                    final JdbcFileStatus status = locate.apply(conn);
+                    final JdbcFileStatus current = context.isSummary() ? lock(conn, table, status.getId()) : status;
+                    if (table.isTier()) {
+                        statement(conn, table.sqlGetRefById, false, ps -> {
+                            ps.setLong(1, status.getId());
+                            return refs(ps, obsolete);
+                        });
+                    }
+                    final boolean updated = statement(conn, table.sqlUpdateData, false, ps -> {
+                        final long now = System.currentTimeMillis();
+                        int parameterIndex = 1;
+                        if (ref != null) {
+                            ps.setNull(parameterIndex++, Types.BLOB);
+                        } else {
+                            ps.setBlob(parameterIndex++, is);
+                        }
+                        ps.setLong(parameterIndex++, size);
+                        if (table.isTier()) {
+                            ps.setString(parameterIndex++, ref);
+                        }
+                        ps.setLong(parameterIndex++, now);
+                        ps.setLong(parameterIndex, status.getId());
+                        return ps.executeUpdate() > 0;
+                    });
+                    if (!updated && ref != null) {
+                        obsolete.add(ref);
+                    } else if (updated && context.isSummary() && current != null) {
+                        moveSummary(conn, new JdbcContentSummary(size - current.getLen(), 0, 0), null,
+                                current.getPath().getParent());
+                    }
+                    return updated;
+                }, "uploadFile", f.toString());
+            } catch (IOException e) {
+                if (ref != null) {
+                    tier.delete(ref);
+                }
+                throw e;
+            }
+            metrics.written(size);
+            if (!obsolete.isEmpty()) {
+                tier.delete(obsolete);
+            }
+        };
     }
 }
@@ -0,0 +1,420 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.annotation.Internal;
+import org.apache.flink.configuration.MemorySize;
+import org.apache.flink.util.TimeUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.flink.util.Preconditions.checkArgument;
+
+/**
+ * 同一个JdbcFileSystemFactory创建的所有JdbcFileSystem共享的配置与组件.
+ * <p>
+ * 并行执行器、异步上传与预读的线程池由context持有，在{@link #close()}时关闭.
+ * 被替换的context通过{@link #retire()}退役，使用它的JdbcFileSystem全部被回收之后才关闭.
+ */
+@Internal
+public final class JdbcFileSystemContext implements Closeable {
+    static final String BUFFER_SIZE = "bufferSize";
+    static final String CACHE_DIR = "cacheDir";
+    static final String CACHE_SIZE = "cacheSize";
+    static final String SPOOL_DIR = "spoolDir";
+    static final String SPOOL_THRESHOLD = "spoolThreshold";
+    static final String BLOCK_SIZE = "blockSize";
+    static final String BUFFER_POOL_SIZE = "bufferPoolSize";
+    static final String BUFFER_SEGMENT_SIZE = "bufferSegmentSize";
+    static final String BUFFER_DIRECT = "bufferDirect";
+    static final String BUFFER_TIMEOUT = "bufferTimeout";
+    static final String BATCH_SIZE = "batchSize";
+    static final String PATH_HASH = "pathHash";
+    static final String PARTITION_DEPTH = "partitionDepth";
+    static final String PARTITION_DDL = "partitionDdl";
+    static final String TIER_URI = "tierUri";
+    static final String TIER_THRESHOLD = "tierThreshold";
+    static final String SUMMARY = "summary";
+    static final String ASYNC_UPLOAD = "asyncUpload";
+    static final String ASYNC_UPLOAD_THREADS = "asyncUploadThreads";
+    static final String ASYNC_UPLOAD_QUEUE_SIZE = "asyncUploadQueueSize";
+    static final String PARALLELISM = "parallelism";
+    static final String DEFERRED_CREATE = "deferredCreate";
+    static final String RANGE_THRESHOLD = "rangeThreshold";
+    static final String RANGE_SIZE = "rangeSize";
+    static final String READ_AHEAD = "readAhead";
+    static final String READ_AHEAD_THREADS = "readAheadThreads";
+
+    private static final String DEFAULT_BUFFER_SIZE = "1024";
+    private static final String DEFAULT_CACHE_SIZE = "1gb";
+    private static final String DEFAULT_SPOOL_THRESHOLD = "0";
+    private static final String DEFAULT_BLOCK_SIZE = "0";
+    private static final String DEFAULT_BUFFER_POOL_SIZE = "0";
+    private static final String DEFAULT_BUFFER_SEGMENT_SIZE = "64kb";
+    private static final String DEFAULT_BUFFER_TIMEOUT = "1min";
+    private static final String DEFAULT_BATCH_SIZE = "500";
+    private static final String DEFAULT_PARTITION_DEPTH = "0";
+    private static final String DEFAULT_PARTITION_DDL = "CREATE TABLE IF NOT EXISTS `{partition}` LIKE `{table}`";
+    private static final String DEFAULT_TIER_THRESHOLD = "64mb";
+    private static final String DEFAULT_ASYNC_UPLOAD_THREADS = "4";
+    private static final String DEFAULT_ASYNC_UPLOAD_QUEUE_SIZE = "64";
+    private static final String DEFAULT_PARALLELISM = "1";
+    private static final String DEFAULT_RANGE_THRESHOLD = "0";
+    private static final String DEFAULT_RANGE_SIZE = "1mb";
+    private static final String DEFAULT_READ_AHEAD = "4";
+    private static final String DEFAULT_READ_AHEAD_THREADS = "4";
+
+    private final int bufferSize;
+    private final JdbcFileCache fileCache;
+    private final Path spoolDir;
+    private final long spoolThreshold;
+    private final long blockSize;
+    private final JdbcBufferPool bufferPool;
+    private final JdbcAsyncUploader uploader;
+    private final int batchSize;
+    private final boolean pathHash;
+    private final int partitionDepth;
+    private final String partitionDdl;
+    private final JdbcTierStorage tierStorage;
+    private final boolean summary;
+    private final JdbcParallelExecutor executor;
+    private final boolean deferredCreate;
+    private final long rangeThreshold;
+    private final int rangeSize;
+    private final int readAhead;
+    private final ExecutorService readAheadExecutor;
+    private final Set<Reference<JdbcFileSystem>> users = new HashSet<>();
+    private final ReferenceQueue<JdbcFileSystem> released = new ReferenceQueue<>();
+
+    JdbcFileSystemContext(final Properties properties) throws IOException {
+        this.bufferSize = Integer.parseInt(properties.getProperty(BUFFER_SIZE, DEFAULT_BUFFER_SIZE));
+        final String cacheDir = properties.getProperty(CACHE_DIR);
+        this.fileCache = cacheDir == null ? null : new JdbcFileCache(Paths.get(cacheDir),
+                MemorySize.parseBytes(properties.getProperty(CACHE_SIZE, DEFAULT_CACHE_SIZE)));
+        this.spoolThreshold = MemorySize.parseBytes(
+                properties.getProperty(SPOOL_THRESHOLD, DEFAULT_SPOOL_THRESHOLD));
+        this.spoolDir = spoolThreshold <= 0 ? null : Files.createDirectories(
+                Paths.get(properties.getProperty(SPOOL_DIR, System.getProperty("java.io.tmpdir"))));
+        this.blockSize = MemorySize.parseBytes(properties.getProperty(BLOCK_SIZE, DEFAULT_BLOCK_SIZE));
+        // 切分之后每个切片只读取自己的区间，未配置rangeThreshold时按块大小启用区间读取
+        this.rangeThreshold = MemorySize.parseBytes(properties.getProperty(RANGE_THRESHOLD,
+                blockSize > 0 ? Long.toString(blockSize) : DEFAULT_RANGE_THRESHOLD));
+        checkArgument(blockSize <= 0 || rangeThreshold > 0 && rangeThreshold <= blockSize,
+                "blockSize " + blockSize + " requires ranged reads: rangeThreshold must be in (0, blockSize], but was "
+                        + rangeThreshold);
+        this.bufferPool = new JdbcBufferPool(bufferSize,
+                (int) MemorySize.parseBytes(properties.getProperty(BUFFER_SEGMENT_SIZE, DEFAULT_BUFFER_SEGMENT_SIZE)),
+                MemorySize.parseBytes(properties.getProperty(BUFFER_POOL_SIZE, DEFAULT_BUFFER_POOL_SIZE)),
+                Boolean.parseBoolean(properties.getProperty(BUFFER_DIRECT)),
+                TimeUtils.parseDuration(properties.getProperty(BUFFER_TIMEOUT, DEFAULT_BUFFER_TIMEOUT)).toMillis());
+        this.uploader = !Boolean.parseBoolean(properties.getProperty(ASYNC_UPLOAD)) ? null : new JdbcAsyncUploader(
+                Integer.parseInt(properties.getProperty(ASYNC_UPLOAD_THREADS, DEFAULT_ASYNC_UPLOAD_THREADS)),
+                Integer.parseInt(properties.getProperty(ASYNC_UPLOAD_QUEUE_SIZE, DEFAULT_ASYNC_UPLOAD_QUEUE_SIZE)));
+        this.batchSize = Integer.parseInt(properties.getProperty(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        this.pathHash = Boolean.parseBoolean(properties.getProperty(PATH_HASH));
+        this.partitionDepth = Integer.parseInt(properties.getProperty(PARTITION_DEPTH, DEFAULT_PARTITION_DEPTH));
+        this.partitionDdl = properties.getProperty(PARTITION_DDL, DEFAULT_PARTITION_DDL);
+        final String tierUri = properties.getProperty(TIER_URI);
+        this.tierStorage = tierUri == null ? null : new JdbcTierStorage(new org.apache.flink.core.fs.Path(tierUri),
+                MemorySize.parseBytes(properties.getProperty(TIER_THRESHOLD, DEFAULT_TIER_THRESHOLD)));
+        this.summary = Boolean.parseBoolean(properties.getProperty(SUMMARY));
+        final int parallelism = Integer.parseInt(properties.getProperty(PARALLELISM, DEFAULT_PARALLELISM));
+        this.executor = parallelism > 1 ? new JdbcParallelExecutor(parallelism) : null;
+        this.deferredCreate = Boolean.parseBoolean(properties.getProperty(DEFERRED_CREATE));
+        this.rangeSize = (int) MemorySize.parseBytes(properties.getProperty(RANGE_SIZE, DEFAULT_RANGE_SIZE));
+        this.readAhead = Integer.parseInt(properties.getProperty(READ_AHEAD, DEFAULT_READ_AHEAD));
+        this.readAheadExecutor = rangeThreshold <= 0 || readAhead <= 0 ? null : readAheadExecutor(
+                Integer.parseInt(properties.getProperty(READ_AHEAD_THREADS, DEFAULT_READ_AHEAD_THREADS)));
+    }
+
+    private static ExecutorService readAheadExecutor(final int threads) {
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "jdbc-read-ahead-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static JdbcFileSystemContext of(final int bufferSize) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(BUFFER_SIZE, Integer.toString(bufferSize));
+        return new JdbcFileSystemContext(properties);
+    }
+
+    /**
+     * 复制数据时的缓冲区大小，也是未配置bufferPoolSize时每个流初始的内存大小.
+     *
+     * @return 缓冲区大小
+     */
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 本地磁盘缓存，未配置cacheDir时为null.
+     *
+     * @return 本地磁盘缓存
+     */
+    JdbcFileCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * 文件切分的块大小，为0(默认)时整个文件作为一个块.
+     * <p>
+     * 大于0时要求开启区间读取，rangeThreshold默认等于blockSize，显式配置时不能为0或者大于blockSize，
+     * 否则每个切片的读取者都会下载整个文件.
+     *
+     * @return 块大小
+     */
+    long getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * 所有流共享的内存段池，bufferPoolSize限制总的内存用量，为0(默认)时不限制，流从bufferSize开始按需增长.
+     *
+     * @return 内存段池
+     */
+    JdbcBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * 异步上传器，未开启asyncUpload时为null.
+     *
+     * @return 异步上传器
+     */
+    JdbcAsyncUploader getUploader() {
+        return uploader;
+    }
+
+    /**
+     * 批量操作时每条SQL包含的最大路径数.
+     *
+     * @return 批大小
+     */
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 是否使用path_hash列代替path列上的唯一索引查询路径.
+     * <p>
+     * 表中需要有bigint类型的path_hash列及其上的普通索引，path列不再需要索引，已有的表可以执行sql/path_hash.sql迁移.
+     * 递归删除与目录移动改为沿parent索引逐层处理.
+     *
+     * @return 是否使用path_hash
+     */
+    boolean isPathHash() {
+        return pathHash;
+    }
+
+    /**
+     * 分区所在的路径深度，为0时不分区.
+     * <p>
+     * 深度为partitionDepth的目录（如/checkpoints/{jobId}）是分区根，其下的所有子孙存放在独立的子表中，
+     * 递归删除分区根时直接删除子表.
+     *
+     * @return 分区深度
+     */
+    int getPartitionDepth() {
+        return partitionDepth;
+    }
+
+    /**
+     * 创建分区子表的DDL，模板中的{table}与{partition}分别替换为主表名与子表名.
+     *
+     * @param table     主表名
+     * @param partition 子表名
+     * @return DDL
+     */
+    String getPartitionDdl(final String table, final String partition) {
+        return partitionDdl.replace("{table}", table).replace("{partition}", partition);
+    }
+
+    /**
+     * 大文件的二级存储，未配置tierUri时为null.
+     * <p>
+     * 表中需要有varchar类型的tier_ref列，保存内容在二级存储中的引用，已有的表可以执行sql/tier_ref.sql增加该列.
+     *
+     * @return 二级存储
+     */
+    JdbcTierStorage getTierStorage() {
+        return tierStorage;
+    }
+
+    /**
+     * 是否在目录行上维护子孙的文件总大小、文件数与目录数.
+     * <p>
+     * 表中需要有bigint类型的sum_len、sum_files、sum_dirs列，默认值为0，已有的表可以执行sql/summary.sql增加这些列，
+     * 再用{@link JdbcFileSystem#recomputeSummary}回填. 写操作提交之后，本进程内的增量按目录合并，再批量累加到所有祖先目录上，
+     * 进程在累加之前崩溃时丢失的增量同样用recomputeSummary修正.
+     *
+     * @return 是否维护目录汇总
+     */
+    boolean isSummary() {
+        return summary;
+    }
+
+    /**
+     * 递归操作的并行执行器，parallelism不大于1时为null.
+     * <p>
+     * 不依赖单个事务的递归操作（遍历子树计算汇总、删除分区子表、清理二级存储中的对象）按子树并行，
+     * 最多同时占用parallelism个连接.
+     *
+     * @return 并行执行器
+     */
+    JdbcParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * create()是否只校验路径，文件行、父目录的更新与内容在close()时于同一个事务中提交.
+     * <p>
+     * 每个文件只需一次写事务，文件在close()之前不可见.
+     *
+     * @return 是否延迟创建
+     */
+    boolean isDeferredCreate() {
+        return deferredCreate;
+    }
+
+    /**
+     * 文件大小达到rangeThreshold时按区间读取，rangeThreshold为0时不启用，配置了blockSize时默认等于blockSize.
+     * <p>
+     * 打开文件时只读取第一个区间，之后每个区间使用一次查询，顺序读取时在后台预读.
+     *
+     * @param len 文件大小
+     * @return 是否按区间读取
+     */
+    boolean isRanged(final long len) {
+        return isRanged() && len >= rangeThreshold;
+    }
+
+    boolean isRanged() {
+        return rangeThreshold > 0;
+    }
+
+    int getRangeSize() {
+        return rangeSize;
+    }
+
+    /**
+     * 每个流最多预读的区间数.
+     *
+     * @return 预读的区间数
+     */
+    int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * 预读使用的线程池，未启用按区间读取或者readAhead为0时为null.
+     *
+     * @return 预读线程池
+     */
+    ExecutorService getReadAheadExecutor() {
+        return readAheadExecutor;
+    }
+
+    /**
+     * 本地临时文件的目录，未启用spool时为null.
+     *
+     * @return 临时文件目录
+     */
+    Path getSpoolDir() {
+        return spoolDir;
+    }
+
+    /**
+     * 文件大小达到spoolThreshold时先写入本地临时文件再从文件读取，spoolThreshold默认为0，即不启用.
+     *
+     * @param len 文件大小
+     * @return 是否需要写入本地临时文件
+     */
+    boolean isSpool(final long len) {
+        return spoolThreshold > 0 && len >= spoolThreshold;
+    }
+
+    /**
+     * 记录使用context的JdbcFileSystem，只保留虚引用，不影响JdbcFileSystem被回收.
+     *
+     * @param fs 使用context的JdbcFileSystem
+     */
+    synchronized void retain(final JdbcFileSystem fs) {
+        expunge();
+        users.add(new PhantomReference<>(fs, released));
+    }
+
+    private synchronized boolean expunge() {
+        for (Reference<? extends JdbcFileSystem> ref = released.poll(); ref != null; ref = released.poll()) {
+            users.remove(ref);
+        }
+        return users.isEmpty();
+    }
+
+    /**
+     * 不再用于创建JdbcFileSystem. 在后台等待已经创建的JdbcFileSystem全部被回收，之后关闭context.
+     */
+    void retire() {
+        final Thread reaper = new Thread(() -> {
+            try {
+                while (!expunge()) {
+                    final Reference<? extends JdbcFileSystem> ref = released.remove();
+                    synchronized (this) {
+                        users.remove(ref);
+                    }
+                }
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "jdbc-context-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * 关闭context持有的线程池，并等待其中的任务结束.
+     * 已经提交的上传与递归任务继续执行完，之后的异步上传失败，预读不再进行.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.close();
+        }
+        if (uploader != null) {
+            uploader.close();
+        }
+        if (readAheadExecutor != null) {
+            readAheadExecutor.shutdown();
+        }
+        try {
+            if (executor != null) {
+                executor.awaitTermination();
+            }
+            if (uploader != null) {
+                uploader.awaitTermination();
+            }
+            if (readAheadExecutor != null) {
+                readAheadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -20,11 +20,11 @@ public class JdbcFileSystemFactory implements FileSystemFactory {
     private static final String SCHEME = "jdbc";
     private static final String CONFIG_PREFIX = "fs." + SCHEME + ".";
     private static final int CONFIG_PREFIX_LENGTH = CONFIG_PREFIX.length();
-    private static final String DEFAULT_BUFFER_SIZE = "1024";
 
     private static volatile DataSource dataSource;
 
     private final Properties dataSourceProperties = new Properties();
+    private volatile JdbcFileSystemContext context;
 
     @Override
     public String getScheme() {
@@ -35,8 +35,7 @@ public class JdbcFileSystemFactory implements FileSystemFactory {
     public FileSystem create(final URI fsUri) throws IOException {
         LOGGER.info("create: " + fsUri);
         try {
-            final String bufferSize = dataSourceProperties.getProperty("bufferSize", DEFAULT_BUFFER_SIZE);
-            return new JdbcFileSystem(getDataSource(dataSourceProperties), Integer.parseInt(bufferSize), fsUri);
+            return new JdbcFileSystem(getDataSource(dataSourceProperties), fsUri, getContext());
         } catch (IOException e) {
             throw e;
         } catch (Exception e) {
@@ -62,10 +61,28 @@ public class JdbcFileSystemFactory implements FileSystemFactory {
         return dataSource;
     }
 
+    private JdbcFileSystemContext getContext() throws IOException {
+        if (context == null) {
+            synchronized (this) {
+                if (context == null) {
+                    context = new JdbcFileSystemContext(dataSourceProperties);
+                }
+            }
+        }
+        return context;
+    }
+
     @Override
     public void configure(final Configuration config) {
         LOGGER.info("configure");
+        JdbcFileSystemMetrics.get().configured();
         dataSourceProperties.clear();
+        final JdbcFileSystemContext previous = context;
+        context = null;
+        if (previous != null) {
+            // 已经创建的JdbcFileSystem仍在使用旧的context，全部被回收之后才关闭它持有的线程池
+            previous.retire();
+        }
         for (final String key : config.keySet()) {
             if (key.startsWith(CONFIG_PREFIX)) {
                 final String propKey = key.substring(CONFIG_PREFIX_LENGTH);
@@ -0,0 +1,442 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
+import org.apache.flink.metrics.Histogram;
+import org.apache.flink.metrics.HistogramStatistics;
+import org.apache.flink.metrics.MetricGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * JdbcFileSystem的操作指标.
+ * <p>
+ * FileSystem插件无法获得MetricGroup，同一进程内的所有JdbcFileSystem共享一份指标，操作、字节数与回滚按表区分.
+ * 由作业在open()中调用{@link #register(MetricGroup)}导出到Flink的指标系统，在close()中调用
+ * {@link #unregister(MetricGroup)}交还，同一时间只有一个分组持有这份指标，多个subtask各自调用时不会重复导出.
+ * <p>
+ * 指标只存在于加载JdbcFileSystemFactory的类加载器中. 放在plugins目录下，或者打包进作业jar时，
+ * 作业看到的是另一份JdbcFileSystemMetrics，此时register()记录警告并返回false；
+ * 需要导出指标时把jar放在lib目录下，由Flink与作业共用同一份类.
+ */
+public final class JdbcFileSystemMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcFileSystemMetrics.class);
+
+    static final String OTHER = "other";
+    private static final String[] OPERATIONS = {"getFileStatus", "open", "listStatus", "create", "createFiles",
+            "mkdirs", "rename", "delete", "uploadFile", "getContentSummary", "rollupSummary", "partition", OTHER};
+    private static final int HISTOGRAM_WINDOW = 1024;
+    private static final JdbcFileSystemMetrics INSTANCE = new JdbcFileSystemMetrics();
+
+    private final ConcurrentMap<String, Table> tables = new ConcurrentHashMap<>();
+    private final Histogram connectionWait = new WindowHistogram(HISTOGRAM_WINDOW);
+    private final AtomicInteger connectionsHeld = new AtomicInteger();
+    private final AtomicInteger connectionsWaiting = new AtomicInteger();
+    private final ThreadLocal<Scope> current = new ThreadLocal<>();
+    private volatile boolean configured;
+    private MetricGroup owner;
+    private MetricGroup group;
+
+    private JdbcFileSystemMetrics() {
+    }
+
+    static JdbcFileSystemMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 把指标注册到jdbcfs分组下.
+     * <p>
+     * 每张表的指标在jdbcfs.table.&lt;表名&gt;分组下，每个操作有count、failures、latencyUs与roundTrips，
+     * 另有bytesRead、bytesWritten与rollbacks. 进程级的connectionWaitUs，以及本进程所有JdbcFileSystem
+     * 当前持有的连接数connectionsHeld、正在等待连接的线程数connectionsWaiting直接在jdbcfs分组下.
+     * <p>
+     * 已经注册到其他分组时直接返回false，持有的分组调用{@link #unregister(MetricGroup)}之后才能注册到新的分组上.
+     * 当前类加载器中的JdbcFileSystemFactory没有被Flink配置过时，说明文件系统使用的是另一份指标，同样返回false.
+     *
+     * @param group 指标分组，如RuntimeContext.getMetricGroup()
+     * @return 是否注册到了这个分组上
+     */
+    public static boolean register(final MetricGroup group) {
+        return INSTANCE.export(group);
+    }
+
+    /**
+     * 交还注册时使用的分组，之后其他分组可以重新注册.
+     *
+     * @param group 注册时使用的分组
+     * @return 这个分组是否持有指标
+     */
+    public static boolean unregister(final MetricGroup group) {
+        return INSTANCE.release(group);
+    }
+
+    private synchronized boolean export(final MetricGroup parent) {
+        if (!configured) {
+            LOGGER.warn("JdbcFileSystemFactory is not configured in this classloader, "
+                    + "metrics are exported only when flink-fs-jdbc is loaded from lib/");
+            return false;
+        } else if (owner != null) {
+            return false;
+        }
+        final MetricGroup jdbc = parent.addGroup("jdbcfs");
+        jdbc.histogram("connectionWaitUs", connectionWait);
+        jdbc.gauge("connectionsHeld", (Gauge<Integer>) connectionsHeld::get);
+        jdbc.gauge("connectionsWaiting", (Gauge<Integer>) connectionsWaiting::get);
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            entry.getValue().export(jdbc, entry.getKey());
+        }
+        this.owner = parent;
+        this.group = jdbc;
+        return true;
+    }
+
+    private synchronized boolean release(final MetricGroup parent) {
+        if (owner == null || owner != parent) {
+            return false;
+        }
+        this.owner = null;
+        this.group = null;
+        return true;
+    }
+
+    /**
+     * 由JdbcFileSystemFactory.configure()调用，标记这份指标正在被文件系统使用.
+     */
+    void configured() {
+        this.configured = true;
+    }
+
+    /**
+     * 一张表的指标，已经注册过时同时导出到注册的分组上.
+     *
+     * @param name 表名
+     * @return 表的指标
+     */
+    Table table(final String name) {
+        final Table table = tables.get(name);
+        return table != null ? table : addTable(name);
+    }
+
+    private synchronized Table addTable(final String name) {
+        return tables.computeIfAbsent(name, n -> {
+            final Table table = new Table();
+            if (group != null) {
+                table.export(group, n);
+            }
+            return table;
+        });
+    }
+
+    int getConnectionsHeld() {
+        return connectionsHeld.get();
+    }
+
+    void roundTrip() {
+        final Scope scope = current.get();
+        if (scope != null) {
+            scope.roundTrips++;
+        }
+    }
+
+    /**
+     * 一张表上的操作指标.
+     */
+    final class Table {
+        private final Map<String, Operation> operations;
+        private final Counter bytesRead = new AdderCounter();
+        private final Counter bytesWritten = new AdderCounter();
+        private final Counter rollbacks = new AdderCounter();
+
+        private Table() {
+            final Map<String, Operation> map = new LinkedHashMap<>();
+            for (String name : OPERATIONS) {
+                map.put(name, new Operation());
+            }
+            this.operations = Collections.unmodifiableMap(map);
+        }
+
+        private void export(final MetricGroup jdbc, final String name) {
+            final MetricGroup table = jdbc.addGroup("table", name);
+            for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+                final MetricGroup operation = table.addGroup(entry.getKey());
+                operation.counter("count", entry.getValue().count);
+                operation.counter("failures", entry.getValue().failures);
+                operation.histogram("latencyUs", entry.getValue().latency);
+                operation.histogram("roundTrips", entry.getValue().roundTrips);
+            }
+            table.counter("bytesRead", bytesRead);
+            table.counter("bytesWritten", bytesWritten);
+            table.counter("rollbacks", rollbacks);
+        }
+
+        /**
+         * 从连接池获取连接，并记录等待时间.
+         *
+         * @param ds 连接池
+         * @return 连接
+         * @throws SQLException sql异常
+         */
+        Connection getConnection(final DataSource ds) throws SQLException {
+            final long start = System.nanoTime();
+            connectionsWaiting.incrementAndGet();
+            final Connection conn;
+            try {
+                conn = ds.getConnection();
+            } finally {
+                connectionsWaiting.decrementAndGet();
+                connectionWait.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+            final Scope scope = current.get();
+            if (scope != null && !scope.connected) {
+                // 连接在操作范围结束前关闭，随范围一起交还
+                scope.connected = true;
+                connectionsHeld.incrementAndGet();
+            }
+            return conn;
+        }
+
+        /**
+         * 开始一次操作，操作期间当前线程上的SQL执行计入这次操作.
+         *
+         * @param name 操作名称，未知的操作计入other
+         * @return 操作范围
+         */
+        Scope start(final String name) {
+            final Operation operation = operations.getOrDefault(name, operations.get(OTHER));
+            final Scope scope = new Scope(operation, current.get());
+            current.set(scope);
+            return scope;
+        }
+
+        void roundTrip() {
+            JdbcFileSystemMetrics.this.roundTrip();
+        }
+
+        void rollback() {
+            rollbacks.inc();
+        }
+
+        void read(final long bytes) {
+            bytesRead.inc(bytes);
+        }
+
+        void written(final long bytes) {
+            bytesWritten.inc(bytes);
+        }
+
+        Operation getOperation(final String name) {
+            return operations.get(name);
+        }
+
+        Counter getBytesRead() {
+            return bytesRead;
+        }
+
+        Counter getBytesWritten() {
+            return bytesWritten;
+        }
+
+        Counter getRollbacks() {
+            return rollbacks;
+        }
+    }
+
+    static final class Operation {
+        private final Counter count = new AdderCounter();
+        private final Counter failures = new AdderCounter();
+        private final Histogram latency = new WindowHistogram(HISTOGRAM_WINDOW);
+        private final Histogram roundTrips = new WindowHistogram(HISTOGRAM_WINDOW);
+
+        long getCount() {
+            return count.getCount();
+        }
+
+        long getFailures() {
+            return failures.getCount();
+        }
+
+        Histogram getRoundTrips() {
+            return roundTrips;
+        }
+    }
+
+    final class Scope implements AutoCloseable {
+        private final Operation operation;
+        private final Scope previous;
+        private final long start = System.nanoTime();
+        private int roundTrips;
+        private boolean connected;
+        private boolean succeeded;
+
+        private Scope(final Operation operation, final Scope previous) {
+            this.operation = operation;
+            this.previous = previous;
+        }
+
+        void succeeded() {
+            this.succeeded = true;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+            if (connected) {
+                connectionsHeld.decrementAndGet();
+            }
+            operation.count.inc();
+            if (!succeeded) {
+                operation.failures.inc();
+            }
+            operation.latency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            operation.roundTrips.update(roundTrips);
+        }
+    }
+
+    /**
+     * 多线程并发更新的计数器.
+     */
+    private static final class AdderCounter implements Counter {
+        private final LongAdder adder = new LongAdder();
+
+        @Override
+        public void inc() {
+            adder.increment();
+        }
+
+        @Override
+        public void inc(final long n) {
+            adder.add(n);
+        }
+
+        @Override
+        public void dec() {
+            adder.decrement();
+        }
+
+        @Override
+        public void dec(final long n) {
+            adder.add(-n);
+        }
+
+        @Override
+        public long getCount() {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * 保留最近window个值的直方图.
+     */
+    private static final class WindowHistogram implements Histogram {
+        private final long[] values;
+        private long count;
+
+        private WindowHistogram(final int window) {
+            this.values = new long[window];
+        }
+
+        @Override
+        public synchronized void update(final long value) {
+            values[(int) (count++ % values.length)] = value;
+        }
+
+        @Override
+        public synchronized long getCount() {
+            return count;
+        }
+
+        @Override
+        public HistogramStatistics getStatistics() {
+            final long[] snapshot;
+            synchronized (this) {
+                snapshot = Arrays.copyOf(values, (int) Math.min(count, values.length));
+            }
+            Arrays.sort(snapshot);
+            return new SnapshotStatistics(snapshot);
+        }
+    }
+
+    /**
+     * 直方图某一时刻的统计，values已经排序.
+     */
+    private static final class SnapshotStatistics extends HistogramStatistics {
+        private final long[] values;
+
+        private SnapshotStatistics(final long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public double getQuantile(final double quantile) {
+            if (values.length == 0) {
+                return 0;
+            }
+            final int index = (int) Math.ceil(quantile * values.length) - 1;
+            return values[Math.max(0, Math.min(values.length - 1, index))];
+        }
+
+        @Override
+        public long[] getValues() {
+            return Arrays.copyOf(values, values.length);
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public double getMean() {
+            return values.length == 0 ? 0 : (double) sum() / values.length;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (values.length < 2) {
+                return 0;
+            }
+            final double mean = getMean();
+            double squares = 0;
+            for (long value : values) {
+                squares += (value - mean) * (value - mean);
+            }
+            return Math.sqrt(squares / (values.length - 1));
+        }
+
+        @Override
+        public long getMax() {
+            return values.length == 0 ? 0 : values[values.length - 1];
+        }
+
+        @Override
+        public long getMin() {
+            return values.length == 0 ? 0 : values[0];
+        }
+
+        private long sum() {
+            long sum = 0;
+            for (long value : values) {
+                sum += value;
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import io.github.dbstarll.flink.fs.jdbc.function.Function;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 递归操作的并行执行器.
+ * <p>
+ * 按子树或分组拆分为任务，每个任务从连接池获取各自的连接. 基于ForkJoinPool的工作窃取，
+ * 任务中可以再次调用{@link #invokeAll(Collection, Function)}而不会占满线程，同时执行的任务数不超过parallelism.
+ */
+final class JdbcParallelExecutor implements Closeable {
+    private final ForkJoinPool pool;
+
+    JdbcParallelExecutor(final int parallelism) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("jdbc-parallel-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * 并行处理所有元素并等待全部完成.
+     *
+     * @param items    待处理的元素
+     * @param function 处理函数
+     * @param <T>      元素的类型
+     * @param <R>      结果的类型
+     * @return 与items顺序一致的结果
+     * @throws IOException 任一元素处理失败，其余失败作为suppressed
+     */
+    <T, R> List<R> invokeAll(final Collection<? extends T> items, final Function<? super T, ? extends R> function)
+            throws IOException {
+        final List<Task<T, R>> tasks = new ArrayList<>(items.size());
+        for (T item : items) {
+            tasks.add(new Task<>(item, function));
+        }
+        if (ForkJoinTask.getPool() == pool) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            try {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        ForkJoinTask.invokeAll(tasks);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                throw new IOException("parallel executor closed", e);
+            }
+        }
+        final List<R> results = new ArrayList<>(tasks.size());
+        IOException failure = null;
+        for (Task<T, R> task : tasks) {
+            if (task.failure == null) {
+                results.add(task.getRawResult());
+            } else if (failure == null) {
+                failure = task.failure instanceof IOException ? (IOException) task.failure
+                        : new IOException(task.failure);
+            } else {
+                failure.addSuppressed(task.failure);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * 不再接受新的任务，已经开始的任务继续执行.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    void awaitTermination() throws InterruptedException {
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Task<T, R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient T item;
+        private final transient Function<? super T, ? extends R> function;
+        private Exception failure;
+
+        private Task(final T item, final Function<? super T, ? extends R> function) {
+            this.item = item;
+            this.function = function;
+        }
+
+        @Override
+        protected R compute() {
+            try {
+                return function.apply(item);
+            } catch (SQLException | IOException e) {
+                this.failure = e;
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FSDataInputStream;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按固定大小的区间从数据库中读取文件内容，不在打开时加载整个文件.
+ * <p>
+ * 连续顺序读取时在后台预读后续区间，预读的深度随顺序读取的区间数增长，最多readAhead个；
+ * 跳转到当前区间以外时丢弃已经预读的区间并停止预读，直到再次出现顺序读取.
+ */
+final class JdbcRangedInputStream extends FSDataInputStream {
+    private final RangeReader reader;
+    private final long size;
+    private final int rangeSize;
+    private final int readAhead;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> ring = new ArrayDeque<>();
+    private long ringStart;
+    private byte[] window;
+    private long windowStart;
+    private int sequential;
+    private long pos;
+    private boolean closed;
+
+    /**
+     * 创建流.
+     *
+     * @param first     打开时已经读取的第一个区间
+     * @param size      文件大小
+     * @param rangeSize 区间大小
+     * @param readAhead 最多预读的区间数
+     * @param executor  预读使用的线程池，为null时不预读
+     * @param reader    读取区间
+     */
+    JdbcRangedInputStream(final byte[] first, final long size, final int rangeSize, final int readAhead,
+                          final ExecutorService executor, final RangeReader reader) {
+        this.window = first;
+        this.size = size;
+        this.rangeSize = rangeSize;
+        this.readAhead = readAhead;
+        this.executor = executor;
+        this.reader = reader;
+    }
+
+    @Override
+    public void seek(final long desired) throws IOException {
+        checkOpen();
+        if (desired < 0 || desired > size) {
+            throw new EOFException("seek out of range[0, " + size + "]: " + desired);
+        }
+        this.pos = desired;
+    }
+
+    @Override
+    public long getPos() {
+        return pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkOpen();
+        if (pos >= size) {
+            return -1;
+        }
+        fill();
+        return window[(int) (pos++ - windowStart)] & 0xff;
+    }
+
+    @Override
+    public int read(@Nonnull final byte[] b, final int off, final int len) throws IOException {
+        checkOpen();
+        if (len == 0) {
+            return 0;
+        } else if (pos >= size) {
+            return -1;
+        }
+        final int total = (int) Math.min(len, size - pos);
+        int read = 0;
+        while (read < total) {
+            fill();
+            final int offset = (int) (pos - windowStart);
+            final int count = Math.min(total - read, window.length - offset);
+            System.arraycopy(window, offset, b, off + read, count);
+            read += count;
+            pos += count;
+        }
+        return total;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final long skipped = Math.max(0, Math.min(n, size - pos));
+        pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - pos);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            cancel();
+        }
+    }
+
+    /**
+     * 保证pos位于当前区间内.
+     *
+     * @throws IOException 读取区间失败
+     */
+    private void fill() throws IOException {
+        if (pos >= windowStart && pos < windowStart + window.length) {
+            return;
+        }
+        final long start = pos - pos % rangeSize;
+        if (start == windowStart + rangeSize) {
+            sequential++;
+        } else {
+            sequential = 0;
+        }
+        if (!ring.isEmpty() && ringStart == start) {
+            window = get(ring.poll());
+            ringStart += rangeSize;
+        } else {
+            cancel();
+            window = reader.read(start, length(start));
+        }
+        windowStart = start;
+        if (window.length == 0) {
+            throw new EOFException("range out of range[0, " + size + "]: " + start);
+        }
+        prefetch();
+    }
+
+    private void prefetch() {
+        if (executor == null || sequential == 0) {
+            return;
+        } else if (ring.isEmpty()) {
+            ringStart = windowStart + rangeSize;
+        }
+        final int depth = Math.min(readAhead, sequential);
+        for (long next = ringStart + (long) ring.size() * rangeSize; ring.size() < depth && next < size;
+             next += rangeSize) {
+            final long offset = next;
+            try {
+                ring.add(executor.submit(() -> reader.read(offset, length(offset))));
+            } catch (RejectedExecutionException e) {
+                // 预读线程池已随JdbcFileSystemContext关闭，之后的区间在读取时查询
+                return;
+            }
+        }
+    }
+
+    private void cancel() {
+        for (Future<byte[]> future = ring.poll(); future != null; future = ring.poll()) {
+            future.cancel(false);
+        }
+    }
+
+    private int length(final long start) {
+        return (int) Math.min(rangeSize, size - start);
+    }
+
+    private static byte[] get(final Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for read ahead");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * 读取文件的一个区间.
+     */
+    @FunctionalInterface
+    interface RangeReader {
+        /**
+         * 读取区间.
+         *
+         * @param offset 区间的起始位置
+         * @param length 区间的长度
+         * @return 区间的内容
+         * @throws IOException io异常
+         */
+        byte[] read(long offset, int length) throws IOException;
+    }
+}
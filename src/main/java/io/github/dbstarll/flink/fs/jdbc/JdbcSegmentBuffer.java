@@ -0,0 +1,154 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 由JdbcBufferPool中的内存段组成的可增长缓冲区，除最后一段外每段都是写满的.
+ * <p>
+ * 第一段可能小于segmentSize，写满后先扩大第一段，到segmentSize之后才申请下一段，所以按segmentBits定位仍然成立.
+ */
+final class JdbcSegmentBuffer implements Closeable {
+    private final JdbcBufferPool pool;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private long size;
+
+    JdbcSegmentBuffer(final JdbcBufferPool pool) {
+        this.pool = pool;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int getSegmentBits() {
+        return pool.getSegmentBits();
+    }
+
+    void write(final int b) throws IOException {
+        current().put((byte) b);
+        size++;
+    }
+
+    void write(final byte[] b, final int off, final int len) throws IOException {
+        int written = 0;
+        while (written < len) {
+            final ByteBuffer segment = current();
+            final int count = Math.min(len - written, segment.remaining());
+            segment.put(b, off + written, count);
+            written += count;
+        }
+        size += len;
+    }
+
+    /**
+     * 读取输入流直到结束.
+     *
+     * @param is 输入流
+     * @throws IOException io异常
+     */
+    void readFrom(final InputStream is) throws IOException {
+        try (ReadableByteChannel channel = Channels.newChannel(is)) {
+            while (true) {
+                final int count = channel.read(current());
+                if (count < 0) {
+                    break;
+                }
+                size += count;
+            }
+        }
+    }
+
+    /**
+     * 可读的内存段视图，与缓冲区共享内容.
+     *
+     * @return 内存段视图
+     */
+    ByteBuffer[] segments() {
+        final ByteBuffer[] views = new ByteBuffer[segments.size()];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = segments.get(i).duplicate();
+            views[i].flip();
+        }
+        return views;
+    }
+
+    InputStream toInputStream() {
+        return new SegmentInputStream(segments());
+    }
+
+    private ByteBuffer current() throws IOException {
+        final int last = segments.size() - 1;
+        if (last >= 0 && segments.get(last).hasRemaining()) {
+            return segments.get(last);
+        } else if (last == 0) {
+            final ByteBuffer grown = pool.grow(segments.get(0));
+            if (grown != null) {
+                pool.release(segments.set(0, grown));
+                return grown;
+            }
+        }
+        final ByteBuffer segment = last < 0 ? pool.acquireFirst()
+                : pool.acquire((long) segments.size() << pool.getSegmentBits());
+        segments.add(segment);
+        return segment;
+    }
+
+    @Override
+    public void close() {
+        for (ByteBuffer segment : segments) {
+            pool.release(segment);
+        }
+        segments.clear();
+        size = 0;
+    }
+
+    private static final class SegmentInputStream extends InputStream {
+        private final ByteBuffer[] segments;
+        private int index;
+
+        private SegmentInputStream(final ByteBuffer[] segments) {
+            this.segments = segments;
+        }
+
+        private ByteBuffer segment() {
+            while (index < segments.length && !segments[index].hasRemaining()) {
+                index++;
+            }
+            return index < segments.length ? segments[index] : null;
+        }
+
+        @Override
+        public int read() {
+            final ByteBuffer segment = segment();
+            return segment == null ? -1 : segment.get() & 0xff;
+        }
+
+        @Override
+        public int read(@Nonnull final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            final ByteBuffer segment = segment();
+            if (segment == null) {
+                return -1;
+            }
+            final int count = Math.min(len, segment.remaining());
+            segment.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            final ByteBuffer segment = segment();
+            return segment == null ? 0 : segment.remaining();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import io.github.dbstarll.flink.fs.jdbc.function.Consumer;
+import org.apache.flink.core.fs.Path;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 目录汇总的增量，在写操作的事务提交之后按目录合并，再由一个线程批量累加到祖先目录上.
+ * <p>
+ * 写操作的事务不再锁定祖先目录，顶层目录不会成为所有写操作共同等待的行锁. 尚未累加的增量只保存在本进程内，
+ * 进程异常退出时会丢失.
+ */
+final class JdbcSummaryRollup {
+    private final ConcurrentMap<Connection, Map<Path, JdbcContentSummary>> staged = new ConcurrentHashMap<>();
+    private final Map<Path, JdbcContentSummary> pending = new HashMap<>();
+    private final ReentrantLock flushing = new ReentrantLock();
+
+    /**
+     * 在事务中记录dir及其所有祖先目录(不包括根目录)的增量.
+     *
+     * @param conn  事务所在的连接
+     * @param dir   目录
+     * @param delta 增量
+     */
+    void stage(final Connection conn, final Path dir, final JdbcContentSummary delta) {
+        final Map<Path, JdbcContentSummary> deltas = staged.computeIfAbsent(conn, c -> new HashMap<>());
+        for (Path p = dir; p != null && p.getParent() != null; p = p.getParent()) {
+            merge(deltas, p, delta);
+        }
+    }
+
+    /**
+     * 事务提交后，把事务中记录的增量转入待累加的增量.
+     *
+     * @param conn 事务所在的连接
+     * @return 是否有新的增量
+     */
+    boolean commit(final Connection conn) {
+        final Map<Path, JdbcContentSummary> deltas = staged.remove(conn);
+        if (deltas == null || deltas.isEmpty()) {
+            return false;
+        }
+        synchronized (pending) {
+            deltas.forEach((dir, delta) -> merge(pending, dir, delta));
+        }
+        return true;
+    }
+
+    void rollback(final Connection conn) {
+        staged.remove(conn);
+    }
+
+    /**
+     * 累加所有待累加的增量，同一时刻只有一个线程在累加.
+     *
+     * @param wait  已有线程在累加时是否等待它结束后再累加，不等待时直接返回
+     * @param apply 在一个事务中累加增量，失败时增量保留到下一次累加
+     * @throws IOException 累加失败
+     */
+    void flush(final boolean wait, final Consumer<Map<Path, JdbcContentSummary>> apply) throws IOException {
+        if (wait) {
+            flushing.lock();
+        } else if (!flushing.tryLock()) {
+            return;
+        }
+        try {
+            final Map<Path, JdbcContentSummary> deltas;
+            synchronized (pending) {
+                deltas = new HashMap<>(pending);
+                pending.clear();
+            }
+            if (!deltas.isEmpty()) {
+                try {
+                    apply.accept(deltas);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (pending) {
+                        deltas.forEach((dir, delta) -> merge(pending, dir, delta));
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            flushing.unlock();
+        }
+    }
+
+    private static void merge(final Map<Path, JdbcContentSummary> deltas, final Path dir,
+                              final JdbcContentSummary delta) {
+        deltas.merge(dir, delta, (a, b) -> {
+            final JdbcContentSummary sum = a.add(b);
+            // 相互抵消的增量，例如在同一个祖先目录下的移动
+            return sum.isEmpty() ? null : sum;
+        });
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+
+/**
+ * 一张存储表及其上的SQL.
+ */
+final class JdbcTable {
+    private static final String COLUMNS = "id,parent,path,file,len,created,modified";
+    static final int COLUMN_ID = 1;
+    static final int COLUMN_PARENT = 2;
+    static final int COLUMN_PATH = 3;
+    static final int COLUMN_FILE = 4;
+    static final int COLUMN_LEN = 5;
+    static final int COLUMN_CREATED = 6;
+    static final int COLUMN_MODIFIED = 7;
+
+    private final String name;
+    private final boolean pathHash;
+    private final boolean tier;
+    private final int batchSize;
+
+    final String sqlGetByPath;
+    final String sqlGetDataByPath;
+    final String sqlGetDataById;
+    final String sqlGetRangeById;
+    final String sqlFindByParent;
+    final String sqlInsert;
+    final String sqlUpdateData;
+    final String sqlUpdateModified;
+    final String sqlMove;
+    final String sqlMoveSub;
+    final String sqlMoveById;
+    final String sqlDeleteById;
+    final String sqlDeleteByPath;
+    final String sqlGetRefById;
+    final String sqlFindRefsByPath;
+    final String sqlLockById;
+    final String sqlGetSummaryById;
+    final String sqlLockSummaryById;
+    final String sqlSumChildren;
+    final String sqlUpdateSummary;
+    final String sqlSetSummaryById;
+    private final String sqlGetByPaths;
+    private final String sqlFindByParents;
+    private final String sqlDeleteByIds;
+
+    JdbcTable(final String name, final JdbcFileSystemContext context) {
+        this.name = name;
+        this.pathHash = context.isPathHash();
+        this.tier = context.getTierStorage() != null;
+        this.batchSize = context.getBatchSize();
+        final String wherePath = pathHash ? " WHERE path_hash=? and path=?" : " WHERE path=?";
+        final String data = tier ? "data,tier_ref" : "data";
+        this.sqlGetByPath = "SELECT " + COLUMNS + " FROM `" + name + "`" + wherePath;
+        this.sqlGetDataByPath = "SELECT " + data + ",len FROM `" + name + "`" + wherePath + " and file=1";
+        this.sqlGetDataById = "SELECT " + data + " FROM `" + name + "` WHERE id=? and modified=? and file=1";
+        this.sqlGetRangeById = "SELECT SUBSTRING(data,?,?)" + (tier ? ",tier_ref" : "") + " FROM `" + name
+                + "` WHERE id=? and modified=? and file=1";
+        this.sqlFindByParent = "SELECT " + COLUMNS + " FROM `" + name + "` WHERE parent=?";
+        this.sqlInsert = "INSERT INTO `" + name + "` (parent,name," + (pathHash ? "path_hash," : "")
+                + "path,file,created,modified) VALUES (?,?," + (pathHash ? "?," : "") + "?,?,?,?)";
+        this.sqlUpdateData = "UPDATE `" + name + "` SET data=?,len=?," + (tier ? "tier_ref=?," : "")
+                + "modified=GREATEST(?,modified+1) WHERE id=? and file=1";
+        this.sqlUpdateModified = "UPDATE `" + name + "` SET modified=? WHERE id=? and file=0";
+        this.sqlMove = "UPDATE `" + name + "` SET parent=?,name=?," + (pathHash ? "path_hash=?," : "")
+                + "path=? WHERE id=? and parent=? and name=?";
+        this.sqlMoveSub = "UPDATE `" + name + "` SET path=concat(?,SUBSTRING(path,?)) WHERE path LIKE ?";
+        this.sqlMoveById = "UPDATE `" + name + "` SET path_hash=?,path=? WHERE id=?";
+        this.sqlDeleteById = "DELETE FROM `" + name + "` WHERE id=?";
+        this.sqlDeleteByPath = "DELETE FROM `" + name + "` WHERE path=? OR path LIKE ?";
+        this.sqlGetRefById = "SELECT tier_ref FROM `" + name + "` WHERE id=? FOR UPDATE";
+        this.sqlFindRefsByPath = "SELECT tier_ref FROM `" + name + "` WHERE (path=? OR path LIKE ?)"
+                + " and tier_ref IS NOT NULL";
+        this.sqlLockById = "SELECT " + COLUMNS + " FROM `" + name + "` WHERE id=? FOR UPDATE";
+        this.sqlGetSummaryById = "SELECT sum_len,sum_files,sum_dirs FROM `" + name + "` WHERE id=?";
+        this.sqlLockSummaryById = sqlGetSummaryById + " FOR UPDATE";
+        this.sqlSumChildren = "SELECT SUM(CASE WHEN file=1 THEN len ELSE sum_len END),"
+                + "SUM(CASE WHEN file=1 THEN 1 ELSE sum_files END),"
+                + "SUM(CASE WHEN file=1 THEN 0 ELSE sum_dirs+1 END) FROM `" + name + "` WHERE parent=?";
+        this.sqlUpdateSummary = "UPDATE `" + name + "` SET sum_len=sum_len+?,sum_files=sum_files+?,"
+                + "sum_dirs=sum_dirs+?" + wherePath + " and file=0";
+        this.sqlSetSummaryById = "UPDATE `" + name + "` SET sum_len=?,sum_files=?,sum_dirs=? WHERE id=? and file=0";
+        this.sqlGetByPaths = buildGetByPaths(batchSize);
+        this.sqlFindByParents = buildFindByParents(batchSize);
+        this.sqlDeleteByIds = buildDeleteByIds(batchSize);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isPathHash() {
+        return pathHash;
+    }
+
+    /**
+     * 是否有tier_ref列.
+     *
+     * @return 是否开启二级存储
+     */
+    boolean isTier() {
+        return tier;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    String sqlGetByPaths(final int size) {
+        return size == batchSize ? sqlGetByPaths : buildGetByPaths(size);
+    }
+
+    String sqlFindByParents(final int size) {
+        return size == batchSize ? sqlFindByParents : buildFindByParents(size);
+    }
+
+    String sqlDeleteByIds(final int size) {
+        return size == batchSize ? sqlDeleteByIds : buildDeleteByIds(size);
+    }
+
+    String sqlFindRefsByIds(final int size) {
+        return "SELECT tier_ref FROM `" + name + "` WHERE id IN (" + placeholders(size) + ") and tier_ref IS NOT NULL";
+    }
+
+    private String buildGetByPaths(final int size) {
+        // 哈希冲突的行在按path匹配时被过滤
+        return "SELECT " + COLUMNS + " FROM `" + name + "` WHERE "
+                + (pathHash ? "path_hash" : "path") + " IN (" + placeholders(size) + ")";
+    }
+
+    private String buildFindByParents(final int size) {
+        return "SELECT " + COLUMNS + " FROM `" + name + "` WHERE parent IN (" + placeholders(size) + ")";
+    }
+
+    private String buildDeleteByIds(final int size) {
+        return "DELETE FROM `" + name + "` WHERE id IN (" + placeholders(size) + ")";
+    }
+
+    private static String placeholders(final int size) {
+        return String.join(",", Collections.nCopies(size, "?"));
+    }
+
+    /**
+     * 设置路径参数，开启pathHash时在path之前先设置path_hash.
+     *
+     * @param ps             PreparedStatement
+     * @param parameterIndex 参数位置
+     * @param path           路径
+     * @return 下一个参数位置
+     * @throws SQLException sql异常
+     */
+    int setPath(final PreparedStatement ps, final int parameterIndex, final String path) throws SQLException {
+        int index = parameterIndex;
+        if (pathHash) {
+            ps.setLong(index++, pathHash(path));
+        }
+        ps.setString(index++, path);
+        return index;
+    }
+
+    /**
+     * 设置批量查询的路径参数，开启pathHash时只设置path_hash.
+     *
+     * @param ps             PreparedStatement
+     * @param parameterIndex 参数位置
+     * @param path           路径
+     * @throws SQLException sql异常
+     */
+    void setLookupPath(final PreparedStatement ps, final int parameterIndex, final String path)
+            throws SQLException {
+        if (pathHash) {
+            ps.setLong(parameterIndex, pathHash(path));
+        } else {
+            ps.setString(parameterIndex, path);
+        }
+    }
+
+    /**
+     * 路径的定长哈希，取MD5的前8个字节.
+     *
+     * @param path 路径
+     * @return 路径哈希
+     */
+    static long pathHash(final String path) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(path.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.FSDataOutputStream;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+import org.apache.flink.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * 把超过阈值的文件内容存放到另一个Flink FileSystem中，数据库中只保存引用.
+ * <p>
+ * 引用形如{table}/{uuid}，与文件路径无关，因此rename只需修改元数据.
+ */
+final class JdbcTierStorage {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcTierStorage.class);
+
+    private final FileSystem fs;
+    private final Path dir;
+    private final long threshold;
+
+    JdbcTierStorage(final Path dir, final long threshold) throws IOException {
+        this.fs = dir.getFileSystem();
+        this.dir = dir;
+        this.threshold = threshold;
+    }
+
+    /**
+     * 文件内容是否需要存放到二级存储.
+     *
+     * @param size 文件大小
+     * @return 是否存放到二级存储
+     */
+    boolean accept(final long size) {
+        return size >= threshold;
+    }
+
+    /**
+     * 写入一个新的对象.
+     *
+     * @param table      文件所在的表
+     * @param is         文件内容
+     * @param bufferSize 复制时的缓冲区大小
+     * @return 新对象的引用
+     * @throws IOException io异常
+     */
+    String write(final String table, final InputStream is, final int bufferSize) throws IOException {
+        final String ref = table + Path.SEPARATOR + UUID.randomUUID();
+        try (FSDataOutputStream out = fs.create(path(ref), FileSystem.WriteMode.NO_OVERWRITE)) {
+            IOUtils.copyBytes(is, out, bufferSize, false);
+        } catch (IOException e) {
+            delete(ref);
+            throw e;
+        }
+        return ref;
+    }
+
+    FSDataInputStream open(final String ref) throws IOException {
+        return fs.open(path(ref));
+    }
+
+    void copy(final String ref, final OutputStream os, final int bufferSize) throws IOException {
+        try (FSDataInputStream is = open(ref)) {
+            IOUtils.copyBytes(is, os, bufferSize, false);
+        }
+    }
+
+    /**
+     * 删除对象，元数据已经提交，失败时只记录日志.
+     *
+     * @param refs 对象的引用
+     */
+    void delete(final Collection<String> refs) {
+        for (String ref : refs) {
+            delete(ref);
+        }
+    }
+
+    void delete(final String ref) {
+        try {
+            fs.delete(path(ref), false);
+        } catch (IOException e) {
+            LOGGER.warn("delete tier object failed: " + ref, e);
+        }
+    }
+
+    /**
+     * 删除一张表的所有对象.
+     *
+     * @param table 表名
+     */
+    void deleteTable(final String table) {
+        try {
+            fs.delete(new Path(dir, table), true);
+        } catch (IOException e) {
+            LOGGER.warn("delete tier table failed: " + table, e);
+        }
+    }
+
+    Path path(final String ref) {
+        return new Path(dir, ref);
+    }
+}
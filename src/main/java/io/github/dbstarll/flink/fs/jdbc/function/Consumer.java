@@ -0,0 +1,14 @@
+package io.github.dbstarll.flink.fs.jdbc.function;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface Consumer<T> {
+    /**
+     * Performs this operation on the given argument.
+     *
+     * @param t the input argument
+     * @throws IOException io异常
+     */
+    void accept(T t) throws IOException;
+}
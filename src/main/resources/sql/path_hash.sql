@@ -0,0 +1,9 @@
+-- fs.jdbc.pathHash：在已有的表上增加path_hash列并回填，用path_hash上的普通索引代替path上的唯一索引.
+-- 执行前把`test`替换为实际的表名；开启了分区时，已有的分区表也要执行一遍.
+-- path_hash是path的UTF-8编码的MD5的前8个字节，按大端解释为有符号的bigint，与JdbcTable.pathHash一致.
+ALTER TABLE `test` ADD COLUMN `path_hash` bigint NOT NULL DEFAULT '0' AFTER `name`;
+UPDATE `test` SET `path_hash`=(CAST(CONV(SUBSTRING(MD5(`path`),1,8),16,10) AS DECIMAL(20,0))
+    - (CASE WHEN SUBSTRING(MD5(`path`),1,1) >= '8' THEN 4294967296 ELSE 0 END)) * 4294967296
+    + CAST(CONV(SUBSTRING(MD5(`path`),9,8),16,10) AS DECIMAL(20,0));
+ALTER TABLE `test` ADD INDEX `path_hash_INDEX` (`path_hash`);
+ALTER TABLE `test` DROP INDEX `path_UNIQUE`;
@@ -0,0 +1,6 @@
+-- fs.jdbc.summary：在已有的表上增加目录汇总列.
+-- 执行前把`test`替换为实际的表名；开启了分区时，已有的分区表也要执行一遍.
+-- 增加列之后，在没有写操作时对根目录调用JdbcFileSystem.recomputeSummary回填已有目录的汇总.
+ALTER TABLE `test` ADD COLUMN `sum_len` bigint NOT NULL DEFAULT '0' AFTER `data`;
+ALTER TABLE `test` ADD COLUMN `sum_files` bigint NOT NULL DEFAULT '0' AFTER `sum_len`;
+ALTER TABLE `test` ADD COLUMN `sum_dirs` bigint NOT NULL DEFAULT '0' AFTER `sum_files`;
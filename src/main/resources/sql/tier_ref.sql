@@ -0,0 +1,3 @@
+-- fs.jdbc.tierUri：在已有的表上增加tier_ref列，保存转存到二级存储的内容的引用.
+-- 执行前把`test`替换为实际的表名；开启了分区时，已有的分区表也要执行一遍.
+ALTER TABLE `test` ADD COLUMN `tier_ref` varchar(255) CHARACTER SET utf8 COLLATE utf8_bin AFTER `data`;
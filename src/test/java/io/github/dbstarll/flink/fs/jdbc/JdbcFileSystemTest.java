@@ -1,22 +1,45 @@
 package io.github.dbstarll.flink.fs.jdbc;
 
-import com.alibaba.druid.pool.DruidDataSourceFactory;
 import org.apache.commons.io.IOUtils;
+import org.apache.flink.configuration.Configuration;
 import org.apache.flink.core.fs.*;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.metrics.groups.UnregisteredMetricsGroup;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.sql.DataSource;
-import java.io.Closeable;
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -24,33 +47,55 @@ import static org.junit.jupiter.api.Assertions.*;
  * 测试JdbcFileSystem.
  */
 public final class JdbcFileSystemTest {
+    private final List<JdbcFileSystemContext> contexts = new ArrayList<>();
+    private volatile JdbcTestDatabase db;
     private volatile DataSource ds;
-    private volatile FileSystem fs;
+    private volatile JdbcFileSystem fs;
 
     @BeforeEach
     void setUp() throws Exception {
-        final Properties dataSourceProperties = new Properties();
-        dataSourceProperties.load(ClassLoader.getSystemClassLoader().getResourceAsStream("jdbc.properties"));
-        this.ds = DruidDataSourceFactory.createDataSource(dataSourceProperties);
-        this.fs = new JdbcFileSystem(ds, 1024, URI.create("jdbc://test/default"));
-        final String sql = IOUtils.toString(ClassLoader.getSystemClassLoader().getResourceAsStream("init.sql"), StandardCharsets.UTF_8);
-        try (Connection conn = this.ds.getConnection()) {
-            conn.createStatement().execute(sql);
-        }
+        this.db = new JdbcTestDatabase("test", new Properties());
+        this.ds = db.getDataSource();
+        this.fs = fs(new Properties());
     }
 
     @AfterEach
     void tearDown() throws Exception {
         this.fs = null;
-        if (this.ds instanceof Closeable) {
-            try (Connection conn = ds.getConnection()) {
-                conn.createStatement().executeUpdate("drop table test");
-            }
-            ((Closeable) this.ds).close();
+        for (JdbcFileSystemContext context : contexts) {
+            context.close();
         }
+        this.contexts.clear();
+        this.db.close();
+        this.db = null;
         this.ds = null;
     }
 
+    private static Properties properties(final String... keyValues) {
+        final Properties properties = new Properties();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return properties;
+    }
+
+    /**
+     * 创建JdbcFileSystemContext，在tearDown时关闭.
+     *
+     * @param properties 配置
+     * @return JdbcFileSystemContext
+     * @throws IOException 创建失败
+     */
+    private JdbcFileSystemContext context(final Properties properties) throws IOException {
+        final JdbcFileSystemContext context = new JdbcFileSystemContext(properties);
+        contexts.add(context);
+        return context;
+    }
+
+    private JdbcFileSystem fs(final Properties properties) throws IOException {
+        return new JdbcFileSystem(ds, URI.create("jdbc://test/default"), context(properties));
+    }
+
     @Test
     void mkdirs() throws IOException {
         final Path path = new Path(URI.create("jdbc://test/default/blob"));
@@ -117,6 +162,462 @@ public final class JdbcFileSystemTest {
         }
     }
 
+    @Test
+    void openCached(@TempDir final java.nio.file.Path cacheDir) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.CACHE_DIR, cacheDir.toString());
+        properties.setProperty(JdbcFileSystemContext.CACHE_SIZE, "100");
+        final FileSystem cachedFs = fs(properties);
+
+        final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
+        for (int i = 0; i < 3; i++) {
+            final String content = UUID.randomUUID().toString();
+            try (FSDataOutputStream out = cachedFs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+            for (int j = 0; j < 2; j++) {
+                try (FSDataInputStream is = cachedFs.open(path)) {
+                    assertEquals(content, new String(IOUtils.readFully(is, 36), StandardCharsets.UTF_8));
+                    is.seek(10);
+                    assertEquals(content.charAt(10), is.read());
+                }
+            }
+        }
+        //超出容量的旧版本被淘汰
+        try (java.util.stream.Stream<java.nio.file.Path> files = Files.list(cacheDir)) {
+            assertEquals(2, files.count());
+        }
+
+        //容量不足时未关闭的流所在的文件跳过淘汰，在流关闭时删除
+        final java.nio.file.Path pinnedDir = cacheDir.resolve("pinned");
+        properties.setProperty(JdbcFileSystemContext.CACHE_DIR, pinnedDir.toString());
+        properties.setProperty(JdbcFileSystemContext.CACHE_SIZE, "40");
+        final FileSystem pinnedFs = fs(properties);
+        final FSDataInputStream pinned = pinnedFs.open(path);
+        final String overwrite = UUID.randomUUID().toString();
+        try (FSDataOutputStream out = pinnedFs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+            out.write(overwrite.getBytes(StandardCharsets.UTF_8));
+        }
+        try (FSDataInputStream is = pinnedFs.open(path)) {
+            try (java.util.stream.Stream<java.nio.file.Path> files = Files.list(pinnedDir)) {
+                assertEquals(2, files.count());
+            }
+            pinned.seek(10);
+            assertEquals(26, IOUtils.readFully(pinned, 26).length);
+            pinned.close();
+            try (java.util.stream.Stream<java.nio.file.Path> files = Files.list(pinnedDir)) {
+                assertEquals(1, files.count());
+            }
+            assertEquals(overwrite, new String(IOUtils.readFully(is, 36), StandardCharsets.UTF_8));
+        }
+
+        final Path large = new Path(URI.create("jdbc://test/default/blob/large"));
+        final byte[] content = new byte[200];
+        try (FSDataOutputStream out = cachedFs.create(large, FileSystem.WriteMode.NO_OVERWRITE)) {
+            out.write(content);
+        }
+        try (FSDataInputStream is = cachedFs.open(large)) {
+            assertEquals(200, IOUtils.readFully(is, 200).length);
+        }
+    }
+
+    @Test
+    void openCachedConcurrently(@TempDir final java.nio.file.Path cacheDir) throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.CACHE_DIR, cacheDir.toString());
+        properties.setProperty(JdbcFileSystemContext.CACHE_SIZE, "1");
+        final FileSystem cachedFs = fs(properties);
+
+        final List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Path path = new Path(URI.create("jdbc://test/default/blob/" + i));
+            try (FSDataOutputStream out = cachedFs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+                out.write(path.getName().getBytes(StandardCharsets.UTF_8));
+            }
+            paths.add(path);
+        }
+        //容量只够一个文件，读取期间的文件不能被其他线程淘汰
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        final Path path = paths.get((i + offset) % paths.size());
+                        try (FSDataInputStream is = cachedFs.open(path)) {
+                            assertEquals(path.getName(), String.valueOf((char) is.read()));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void openSpooled(@TempDir final java.nio.file.Path spoolDir) throws IOException {
+        // 默认不启用，也不创建目录
+        final java.nio.file.Path unused = spoolDir.resolve("unused");
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.SPOOL_DIR, unused.toString());
+        assertNull(context(properties).getSpoolDir());
+        assertFalse(Files.exists(unused));
+
+        properties.setProperty(JdbcFileSystemContext.SPOOL_DIR, spoolDir.toString());
+        properties.setProperty(JdbcFileSystemContext.SPOOL_THRESHOLD, "16");
+        final FileSystem spooledFs = fs(properties);
+
+        final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
+        final String content = UUID.randomUUID().toString();
+        try (FSDataOutputStream out = spooledFs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        try (FSDataInputStream is = spooledFs.open(path)) {
+            //临时文件打开后即被删除
+            try (java.util.stream.Stream<java.nio.file.Path> files = Files.list(spoolDir)) {
+                assertEquals(0, files.count());
+            }
+            assertEquals(content, new String(IOUtils.readFully(is, 36), StandardCharsets.UTF_8));
+            assertEquals(-1, is.read());
+            is.seek(35);
+            assertEquals(content.charAt(35), is.read());
+            assertEquals(36, is.getPos());
+        }
+        //缓冲区小于读取长度时直接读取，逐字节读取跨越缓冲区
+        try (FSDataInputStream is = spooledFs.open(path, 8)) {
+            assertEquals(content.substring(0, 20), new String(IOUtils.readFully(is, 20), StandardCharsets.UTF_8));
+            final StringBuilder builder = new StringBuilder();
+            for (int b = is.read(); b >= 0; b = is.read()) {
+                builder.append((char) b);
+            }
+            assertEquals(content.substring(20), builder.toString());
+        }
+    }
+
+    @Test
+    void blockLocations() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.BLOCK_SIZE, "10");
+        // 切分要求按区间读取
+        properties.setProperty(JdbcFileSystemContext.RANGE_THRESHOLD, "0");
+        assertThrows(IllegalArgumentException.class, () -> context(properties));
+        properties.setProperty(JdbcFileSystemContext.RANGE_THRESHOLD, "11");
+        assertThrows(IllegalArgumentException.class, () -> context(properties));
+        properties.remove(JdbcFileSystemContext.RANGE_THRESHOLD);
+        final FileSystem blockFs = fs(properties);
+
+        final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
+        try (FSDataOutputStream out = blockFs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+            out.write(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        }
+        final FileStatus status = blockFs.getFileStatus(path);
+        assertEquals(10, status.getBlockSize());
+
+        final BlockLocation[] locations = ((LocatedFileStatus) status).getBlockLocations();
+        assertEquals(4, locations.length);
+        for (int i = 0; i < locations.length; i++) {
+            assertEquals(i * 10, locations[i].getOffset());
+            assertEquals(i < 3 ? 10 : 6, locations[i].getLength());
+        }
+        assertTrue(locations[0].compareTo(locations[1]) < 0);
+
+        final BlockLocation[] range = blockFs.getFileBlockLocations(status, 15, 10);
+        assertEquals(2, range.length);
+        assertEquals(10, range[0].getOffset());
+        assertEquals(20, range[1].getOffset());
+        assertEquals(0, blockFs.getFileBlockLocations(status, 36, 10).length);
+        try (FSDataInputStream is = blockFs.open(path)) {
+            assertTrue(is instanceof JdbcRangedInputStream);
+        }
+
+        //默认整个文件作为一个块
+        final FileStatus whole = fs.getFileStatus(path);
+        assertEquals(36, whole.getBlockSize());
+        assertEquals(1, fs.getFileBlockLocations(whole, 0, 36).length);
+    }
+
+    @Test
+    void specialCharacters() throws IOException {
+        final Path dir = new Path(URI.create("jdbc://test/default/special"));
+        for (String name : new String[]{"a b", "中文", "x%y", "plain-1.txt"}) {
+            final Path path = new Path(dir, name);
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+                out.write(1);
+            }
+            assertEquals(path, fs.getFileStatus(path).getPath());
+        }
+        final FileStatus[] children = fs.listStatus(dir);
+        assertEquals(4, children.length);
+        for (FileStatus child : children) {
+            assertEquals(child.getPath(), fs.getFileStatus(child.getPath()).getPath());
+            assertEquals(dir, child.getPath().getParent());
+        }
+    }
+
+    @Test
+    void bufferPool() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.BUFFER_SEGMENT_SIZE, "16");
+        properties.setProperty(JdbcFileSystemContext.BUFFER_POOL_SIZE, "64");
+        properties.setProperty(JdbcFileSystemContext.BUFFER_TIMEOUT, "100ms");
+        final FileSystem pooledFs = fs(properties);
+
+        final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
+        final String content = UUID.randomUUID().toString();
+        try (FSDataOutputStream out = pooledFs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        final FSDataInputStream is = pooledFs.open(path);
+        try (FSDataOutputStream out = pooledFs.create(new Path(path.getParent(), "def"),
+                FileSystem.WriteMode.NO_OVERWRITE)) {
+            out.write(new byte[16]);
+            //前两个流已经占满内存池
+            assertThrows(IOException.class, () -> out.write(new byte[1]));
+            is.close();
+            out.write(new byte[16]);
+        }
+        assertThrows(IOException.class, is::read);
+
+        try (FSDataInputStream reopen = pooledFs.open(path)) {
+            assertEquals(content, new String(IOUtils.readFully(reopen, 36), StandardCharsets.UTF_8));
+        }
+        assertEquals(32, pooledFs.getFileStatus(new Path(path.getParent(), "def")).getLen());
+    }
+
+    @Test
+    void unpooledBuffer() throws IOException {
+        //不限制容量时第一段从bufferSize开始倍增
+        final JdbcBufferPool pool = new JdbcBufferPool(1024, 64 * 1024, 0, false, 0);
+        final byte[] content = new byte[70000];
+        new Random(0).nextBytes(content);
+        try (JdbcSegmentBuffer buffer = new JdbcSegmentBuffer(pool)) {
+            buffer.write(content, 0, 36);
+            assertEquals(1024, pool.getUsed());
+            buffer.write(content, 36, 5000);
+            assertEquals(8192, pool.getUsed());
+            buffer.write(content, 5036, content.length - 5036);
+            assertEquals(2 * 64 * 1024, pool.getUsed());
+            assertArrayEquals(content, IOUtils.readFully(buffer.toInputStream(), content.length));
+        }
+        assertEquals(0, pool.getUsed());
+
+        try (FSDataInputStream is = JdbcFSDataInputStream.copy(pool, new ByteArrayInputStream(content, 0, 36))) {
+            assertEquals(1024, pool.getUsed());
+            is.seek(35);
+            assertEquals(content[35] & 0xff, is.read());
+        }
+        try (FSDataInputStream is = JdbcFSDataInputStream.copy(pool, new ByteArrayInputStream(content))) {
+            is.seek(65535);
+            assertEquals(content[65535] & 0xff, is.read());
+            assertEquals(content[65536] & 0xff, is.read());
+        }
+        assertEquals(0, pool.getUsed());
+    }
+
+    @Test
+    void bufferPoolFailFast() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.BUFFER_SEGMENT_SIZE, "16");
+        properties.setProperty(JdbcFileSystemContext.BUFFER_POOL_SIZE, "64");
+        final FileSystem pooledFs = fs(properties);
+        final Path parent = new Path(URI.create("jdbc://test/default/blob"));
+
+        //超过内存池容量的文件不等待超时
+        try (FSDataOutputStream out = pooledFs.create(new Path(parent, "large"), FileSystem.WriteMode.NO_OVERWRITE)) {
+            assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> assertThrows(IOException.class, () -> out.write(new byte[65])));
+        }
+
+        //两个流各持有一半内存池并互相等待
+        final FSDataOutputStream first = pooledFs.create(new Path(parent, "a"), FileSystem.WriteMode.NO_OVERWRITE);
+        final FSDataOutputStream second = pooledFs.create(new Path(parent, "b"), FileSystem.WriteMode.NO_OVERWRITE);
+        first.write(new byte[32]);
+        second.write(new byte[32]);
+        final List<Throwable> failures = new ArrayList<>();
+        final Thread waiting = new Thread(() -> {
+            try (FSDataOutputStream out = first) {
+                out.write(new byte[1]);
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        });
+        waiting.start();
+        while (waiting.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertThrows(IOException.class, () -> second.write(new byte[1])));
+        second.close();
+        waiting.join();
+        assertTrue(failures.isEmpty(), failures.toString());
+        assertEquals(33, pooledFs.getFileStatus(new Path(parent, "a")).getLen());
+        assertEquals(32, pooledFs.getFileStatus(new Path(parent, "b")).getLen());
+    }
+
+    @Test
+    void asyncUpload() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.ASYNC_UPLOAD, "true");
+        final JdbcFileSystem asyncFs = fs(properties);
+
+        final Path parent = new Path(URI.create("jdbc://test/default/blob"));
+        for (int i = 0; i < 10; i++) {
+            final Path path = new Path(parent, "f" + i);
+            try (FSDataOutputStream out = asyncFs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+                out.write(new byte[i]);
+            }
+        }
+        //open等待该文件的上传完成
+        try (FSDataInputStream is = asyncFs.open(new Path(parent, "f9"))) {
+            assertEquals(9, is.available());
+        }
+
+        asyncFs.flush();
+        for (FileStatus status : asyncFs.listStatus(parent)) {
+            assertEquals(status.getPath().getName(), "f" + status.getLen());
+        }
+    }
+
+    @Test
+    void asyncUploadFailure() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.ASYNC_UPLOAD, "true");
+        properties.setProperty(JdbcFileSystemContext.DEFERRED_CREATE, "true");
+        final JdbcFileSystem asyncFs = fs(properties);
+
+        final Path parent = new Path(URI.create("jdbc://test/default/blob"));
+        final Path failed = new Path(parent, "failed");
+        final FSDataOutputStream failedOut = asyncFs.create(failed, FileSystem.WriteMode.OVERWRITE);
+        failedOut.write(new byte[10]);
+        //延迟创建时路径已经变成目录，上传失败
+        assertTrue(asyncFs.mkdirs(failed));
+        failedOut.close();
+
+        final FSDataOutputStream out = asyncFs.create(new Path(parent, "ok"), FileSystem.WriteMode.OVERWRITE);
+        out.write(new byte[10]);
+        out.close();
+        //其他流的失败不影响本流
+        out.sync();
+        assertThrows(FileAlreadyExistsException.class, failedOut::sync);
+
+        //失败只向其他调用者报告一次
+        assertThrows(FileAlreadyExistsException.class, () -> asyncFs.getFileStatus(failed));
+        assertTrue(asyncFs.getFileStatus(failed).isDir());
+        asyncFs.flush();
+        assertThrows(FileAlreadyExistsException.class, failedOut::sync);
+        assertEquals(10, asyncFs.getFileStatus(new Path(parent, "ok")).getLen());
+    }
+
+    @Test
+    void getFileStatusBatch() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(JdbcFileSystemContext.BATCH_SIZE, "2");
+        final JdbcFileSystem batchFs = fs(properties);
+
+        final Path parent = new Path(URI.create("jdbc://test/default/blob"));
+        final List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final Path path = new Path(parent, "f" + i);
+            if (i % 2 == 0) {
+                batchFs.create(path, FileSystem.WriteMode.NO_OVERWRITE).close();
+            }
+            paths.add(path);
+        }
+        paths.add(parent);
+        paths.add(new Path(URI.create("jdbc://test/")));
+
+        final Map<Path, FileStatus> statuses = batchFs.getFileStatus(paths);
+        assertEquals(paths, new ArrayList<>(statuses.keySet()));
+        for (int i = 0; i < 5; i++) {
+            final FileStatus status = statuses.get(paths.get(i));
+            if (i % 2 == 0) {
+                assertEquals(paths.get(i), status.getPath());
+            } else {
+                assertNull(status);
+            }
+        }
+        assertTrue(statuses.get(parent).isDir());
+        assertTrue(statuses.get(paths.get(6)).isDir());
+    }
+
+    @Test
+    void metrics() throws IOException {
+        new JdbcFileSystemFactory().configure(new Configuration());
+        final MetricGroup group = new UnregisteredMetricsGroup();
+        assertTrue(JdbcFileSystemMetrics.register(group));
+        try {
+            // 同一时间只有一个分组持有指标
+            final MetricGroup other = new UnregisteredMetricsGroup();
+            assertFalse(JdbcFileSystemMetrics.register(other));
+            assertFalse(JdbcFileSystemMetrics.unregister(other));
+            assertMetrics();
+        } finally {
+            assertTrue(JdbcFileSystemMetrics.unregister(group));
+        }
+    }
+
+    private void assertMetrics() throws IOException {
+        final JdbcFileSystemMetrics.Table metrics = JdbcFileSystemMetrics.get().table("test");
+        final long otherCreates = JdbcFileSystemMetrics.get().table("other").getOperation("create").getCount();
+        final long creates = metrics.getOperation("create").getCount();
+        final long opens = metrics.getOperation("open").getCount();
+        final long failures = metrics.getOperation("open").getFailures();
+        final long bytesRead = metrics.getBytesRead().getCount();
+        final long bytesWritten = metrics.getBytesWritten().getCount();
+        final long rollbacks = metrics.getRollbacks().getCount();
+
+        final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
+        try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+            out.write(new byte[36]);
+        }
+        fs.open(path).close();
+        try {
+            fs.open(new Path(path.getParent(), "def"));
+            fail("must throws FileNotFoundException");
+        } catch (FileNotFoundException e) {
+            assertEquals(failures + 1, metrics.getOperation("open").getFailures());
+        }
+        try {
+            fs.create(path, FileSystem.WriteMode.NO_OVERWRITE);
+            fail("must throws FileAlreadyExistsException");
+        } catch (FileAlreadyExistsException e) {
+            assertEquals(rollbacks + 1, metrics.getRollbacks().getCount());
+        }
+
+        assertEquals(creates + 2, metrics.getOperation("create").getCount());
+        assertEquals(opens + 2, metrics.getOperation("open").getCount());
+        assertEquals(bytesWritten + 36, metrics.getBytesWritten().getCount());
+        assertEquals(bytesRead + 36, metrics.getBytesRead().getCount());
+        assertTrue(metrics.getOperation("create").getRoundTrips().getStatistics().getMax() >= 3);
+        assertEquals(otherCreates, JdbcFileSystemMetrics.get().table("other").getOperation("create").getCount());
+        assertEquals(0, JdbcFileSystemMetrics.get().getConnectionsHeld());
+    }
+
+    @Test
+    void pathHashMigration() throws IOException {
+        final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
+        try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+            out.write(new byte[36]);
+        }
+
+        final Properties properties = properties(JdbcFileSystemContext.PATH_HASH, "true");
+        db.migrate(properties);
+        // path_hash.sql回填的值与JdbcTable.pathHash一致
+        final JdbcFileSystem hashFs = fs(properties);
+        assertEquals(36, hashFs.getFileStatus(path).getLen());
+        assertTrue(hashFs.getFileStatus(path.getParent()).isDir());
+        final Path moved = new Path(URI.create("jdbc://test/default/moved"));
+        assertTrue(hashFs.rename(path.getParent(), moved));
+        assertEquals(1, hashFs.listStatus(moved).length);
+    }
+
     @Test
     void delete() throws IOException {
         final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
@@ -209,4 +710,859 @@ public final class JdbcFileSystemTest {
             System.out.println(status);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 测试使用path_hash索引的JdbcFileSystem.
+     */
+    @Nested
+    final class PathHash {
+        @BeforeEach
+        void setUp() throws IOException {
+            final Properties properties = properties(JdbcFileSystemContext.PATH_HASH, "true",
+                    JdbcFileSystemContext.BATCH_SIZE, "2");
+            db.migrate(properties);
+            fs = fs(properties);
+        }
+
+        @Test
+        void createAndOpen() throws IOException {
+            final Path path = new Path(URI.create("jdbc://test/default/blob/abc"));
+            final String content = UUID.randomUUID().toString();
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(36, fs.getFileStatus(path).getLen());
+            try (FSDataInputStream is = fs.open(path)) {
+                assertEquals(content, new String(IOUtils.readFully(is, 36), StandardCharsets.UTF_8));
+            }
+
+            final Path missing = new Path(path.getParent(), "def");
+            final Map<Path, FileStatus> statuses = fs.getFileStatus(Arrays.asList(path, missing, path.getParent()));
+            assertEquals(path, statuses.get(path).getPath());
+            assertNull(statuses.get(missing));
+            assertTrue(statuses.get(path.getParent()).isDir());
+        }
+
+        @Test
+        void hashCollision() throws Exception {
+            final Path path = new Path(URI.create("jdbc://test/default/abc"));
+            fs.mkdirs(path.getParent());
+            try (Connection conn = ds.getConnection();
+                 PreparedStatement ps = conn.prepareStatement("INSERT INTO test (parent,name,path_hash,path,file,"
+                         + "created,modified) VALUES (0,'collision',?,'/collision',1,0,0)")) {
+                ps.setLong(1, JdbcTable.pathHash(path.getPath()));
+                ps.executeUpdate();
+            }
+
+            try {
+                fs.getFileStatus(path);
+                fail("must throws FileNotFoundException");
+            } catch (FileNotFoundException e) {
+                assertEquals(path.toString(), e.getMessage());
+            }
+            assertNull(fs.getFileStatus(Arrays.asList(path)).get(path));
+
+            fs.create(path, FileSystem.WriteMode.NO_OVERWRITE).close();
+            assertEquals(path, fs.getFileStatus(path).getPath());
+            assertEquals(path, fs.getFileStatus(Arrays.asList(path)).get(path).getPath());
+        }
+
+        @Test
+        void renameAndDeleteTree() throws IOException {
+            final Path src = new Path(URI.create("jdbc://test/default/src"));
+            for (String name : new String[]{"a/1", "a/2", "a/b/3", "c/4", "5"}) {
+                fs.create(new Path(src, name), FileSystem.WriteMode.NO_OVERWRITE).close();
+            }
+
+            final Path dst = new Path(URI.create("jdbc://test/default/dst"));
+            assertTrue(fs.rename(src, dst));
+            assertFalse(fs.exists(src));
+            for (String name : new String[]{"a/1", "a/2", "a/b/3", "c/4", "5"}) {
+                assertFalse(fs.exists(new Path(src, name)));
+                assertEquals(new Path(dst, name), fs.getFileStatus(new Path(dst, name)).getPath());
+            }
+
+            assertTrue(fs.delete(dst, true));
+            assertFalse(fs.exists(new Path(dst, "a/b/3")));
+            assertEquals(0, fs.listStatus(dst.getParent()).length);
+        }
+    }
+
+    /**
+     * 测试按路径分区存储的JdbcFileSystem.
+     */
+    @Nested
+    final class Partition {
+        private Properties partitioned() throws IOException {
+            return properties(JdbcFileSystemContext.PARTITION_DEPTH, "2",
+                    JdbcFileSystemContext.PARTITION_DDL, JdbcTestDatabase.partitionSchema());
+        }
+
+        @BeforeEach
+        void setUp() throws IOException {
+            fs = fs(partitioned());
+        }
+
+        private List<String> tables(final Connection conn) throws SQLException {
+            final List<String> tables = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES"
+                    + " WHERE LOWER(TABLE_NAME)='test' OR LOWER(TABLE_NAME) LIKE 'test\\_%'");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            return tables;
+        }
+
+        private int count(final String table) throws SQLException {
+            try (Connection conn = ds.getConnection();
+                 ResultSet rs = conn.createStatement().executeQuery("SELECT COUNT(*) FROM `" + table + "`")) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+
+        private void write(final Path path, final String content) throws IOException {
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        @Test
+        void createInPartition() throws Exception {
+            final Path job = new Path(URI.create("jdbc://test/default/job1"));
+            final Path path = new Path(job, "chk-1/_metadata");
+            final String content = UUID.randomUUID().toString();
+            write(path, content);
+
+            try (FSDataInputStream is = fs.open(path)) {
+                assertEquals(content, new String(IOUtils.readFully(is, 36), StandardCharsets.UTF_8));
+            }
+            assertEquals(path.getParent(), fs.listStatus(job)[0].getPath());
+            assertEquals(path, fs.listStatus(path.getParent())[0].getPath());
+            assertEquals(path, fs.getFileStatus(Arrays.asList(path, job)).get(path).getPath());
+            assertFalse(fs.exists(new Path(URI.create("jdbc://test/default/job2/chk-1"))));
+
+            // 主表只保存到分区根为止
+            assertEquals(2, count("test"));
+            try (Connection conn = ds.getConnection()) {
+                assertEquals(2, tables(conn).size());
+            }
+        }
+
+        @Test
+        void deletePartition() throws Exception {
+            final Path jobs = new Path(URI.create("jdbc://test/default"));
+            for (String name : new String[]{"job1/chk-1/a", "job1/chk-2/b", "job2/chk-1/c"}) {
+                write(new Path(jobs, name), name);
+            }
+            try (Connection conn = ds.getConnection()) {
+                assertEquals(3, tables(conn).size());
+            }
+
+            assertTrue(fs.delete(new Path(jobs, "job1"), true));
+            assertFalse(fs.exists(new Path(jobs, "job1/chk-1/a")));
+            assertFalse(fs.exists(new Path(jobs, "job1")));
+            assertTrue(fs.exists(new Path(jobs, "job2/chk-1/c")));
+            try (Connection conn = ds.getConnection()) {
+                assertEquals(2, tables(conn).size());
+            }
+
+            write(new Path(jobs, "job1/chk-3/d"), "d");
+            assertEquals(1, fs.listStatus(new Path(jobs, "job1")).length);
+
+            assertTrue(fs.delete(jobs, true));
+            assertEquals(0, fs.listStatus(jobs.getParent()).length);
+            assertEquals(0, count("test"));
+            try (Connection conn = ds.getConnection()) {
+                assertEquals(1, tables(conn).size());
+            }
+        }
+
+        @Test
+        void renameInPartition() throws IOException {
+            final Path job = new Path(URI.create("jdbc://test/default/job1"));
+            write(new Path(job, "tmp/a/1"), "1");
+            assertTrue(fs.rename(new Path(job, "tmp"), new Path(job, "chk-1")));
+            assertTrue(fs.exists(new Path(job, "chk-1/a/1")));
+            assertFalse(fs.exists(new Path(job, "tmp")));
+
+            try {
+                fs.rename(new Path(job, "chk-1/a/1"), new Path(URI.create("jdbc://test/default/job2/1")));
+                fail("must throws IOException");
+            } catch (IOException e) {
+                assertFalse(e instanceof FileNotFoundException);
+            }
+            try {
+                fs.rename(job, new Path(URI.create("jdbc://test/default/job2")));
+                fail("must throws IOException");
+            } catch (IOException e) {
+                assertFalse(e instanceof FileNotFoundException);
+            }
+            assertTrue(fs.exists(new Path(job, "chk-1/a/1")));
+
+            // 两个分区根下的子节点在各自子表中的parent都为0
+            write(new Path(job, "x"), "x");
+            final Path other = new Path(URI.create("jdbc://test/default/job2"));
+            assertTrue(fs.mkdirs(other));
+            assertThrows(IOException.class, () -> fs.rename(new Path(job, "x"), other));
+            assertTrue(fs.exists(new Path(job, "x")));
+            assertFalse(fs.rename(new Path(job, "x"), job));
+        }
+
+        @Test
+        void deleteByOtherProcess() throws Exception {
+            final JdbcFileSystem other = fs(partitioned());
+            final Path job = new Path(URI.create("jdbc://test/default/job1"));
+            write(new Path(job, "chk-1/a"), "a");
+            assertTrue(other.exists(new Path(job, "chk-1/a")));
+
+            assertTrue(fs.delete(job, true));
+            // 缓存的子表已被删除，第一次失败后重新创建
+            assertThrows(IOException.class, () -> other.mkdirs(new Path(job, "chk-2")));
+            assertTrue(other.mkdirs(new Path(job, "chk-2")));
+            assertFalse(other.exists(new Path(job, "chk-1/a")));
+            assertEquals(1, fs.listStatus(job).length);
+        }
+    }
+
+    /**
+     * 测试大文件存放到二级存储的JdbcFileSystem.
+     */
+    @Nested
+    final class Tier {
+        private static final String SMALL = "0123456789";
+        private static final String LARGE = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+        @TempDir
+        java.nio.file.Path tierDir;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            final Properties properties = properties(JdbcFileSystemContext.TIER_URI, tierDir.toUri().toString(),
+                    JdbcFileSystemContext.TIER_THRESHOLD, "16b");
+            db.migrate(properties);
+            fs = fs(properties);
+        }
+
+        private void write(final Path path, final String content) throws IOException {
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private String read(final Path path) throws IOException {
+            try (FSDataInputStream is = fs.open(path)) {
+                return IOUtils.toString(is, StandardCharsets.UTF_8);
+            }
+        }
+
+        private String ref(final Path path) throws Exception {
+            try (Connection conn = ds.getConnection();
+                 ResultSet rs = conn.createStatement().executeQuery(
+                         "SELECT tier_ref FROM test WHERE path='" + path.getPath() + "'")) {
+                assertTrue(rs.next());
+                return rs.getString(1);
+            }
+        }
+
+        private long objects() throws IOException {
+            try (Stream<java.nio.file.Path> files = Files.walk(tierDir)) {
+                return files.filter(Files::isRegularFile).count();
+            }
+        }
+
+        @Test
+        void tiered() throws Exception {
+            final Path small = new Path(URI.create("jdbc://test/default/small"));
+            final Path large = new Path(URI.create("jdbc://test/default/large"));
+            write(small, SMALL);
+            write(large, LARGE);
+
+            assertNull(ref(small));
+            assertNotNull(ref(large));
+            assertEquals(1, objects());
+            assertEquals(LARGE.length(), fs.getFileStatus(large).getLen());
+            assertEquals(SMALL, read(small));
+            assertEquals(LARGE, read(large));
+        }
+
+        @Test
+        void overwrite() throws Exception {
+            final Path path = new Path(URI.create("jdbc://test/default/file"));
+            write(path, LARGE);
+            final String ref = ref(path);
+            write(path, LARGE.toUpperCase());
+            assertNotEquals(ref, ref(path));
+            assertEquals(1, objects());
+            assertEquals(LARGE.toUpperCase(), read(path));
+
+            write(path, SMALL);
+            assertNull(ref(path));
+            assertEquals(0, objects());
+            assertEquals(SMALL, read(path));
+        }
+
+        @Test
+        void renameAndDelete() throws Exception {
+            final Path src = new Path(URI.create("jdbc://test/default/src"));
+            write(new Path(src, "a/1"), LARGE);
+            write(new Path(src, "a/2"), LARGE);
+            write(new Path(src, "3"), SMALL);
+            final String ref = ref(new Path(src, "a/1"));
+
+            final Path dst = new Path(URI.create("jdbc://test/default/dst"));
+            assertTrue(fs.rename(src, dst));
+            assertEquals(ref, ref(new Path(dst, "a/1")));
+            assertEquals(LARGE, read(new Path(dst, "a/1")));
+            assertEquals(2, objects());
+
+            assertTrue(fs.delete(new Path(dst, "a/2"), false));
+            assertEquals(1, objects());
+            assertTrue(fs.delete(dst, true));
+            assertEquals(0, objects());
+        }
+    }
+
+    /**
+     * 测试维护目录汇总的JdbcFileSystem.
+     */
+    @Nested
+    final class Summary {
+        private volatile JdbcFileSystem walk;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            final Properties properties = properties(JdbcFileSystemContext.SUMMARY, "true");
+            db.migrate(properties);
+            fs = fs(properties);
+            walk = fs(new Properties());
+        }
+
+        private void write(final Path path, final int size) throws IOException {
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+                out.write(new byte[size]);
+            }
+        }
+
+        private void assertSummary(final Path path, final long length, final long files, final long dirs)
+                throws IOException {
+            final JdbcContentSummary summary = fs.getContentSummary(path);
+            assertEquals(length, summary.getLength(), summary.toString());
+            assertEquals(files, summary.getFileCount(), summary.toString());
+            assertEquals(dirs, summary.getDirectoryCount(), summary.toString());
+            // 与遍历子树的结果一致
+            assertEquals(summary.toString(), walk.getContentSummary(path).toString());
+        }
+
+        @Test
+        void createAndOverwrite() throws IOException {
+            final Path job = new Path(URI.create("jdbc://test/default/job"));
+            write(new Path(job, "chk-1/a"), 10);
+            write(new Path(job, "chk-1/b"), 20);
+            write(new Path(job, "shared/c"), 30);
+            assertTrue(fs.mkdirs(new Path(job, "taskowned/x/y")));
+
+            assertSummary(new Path(job, "chk-1"), 30, 2, 1);
+            assertSummary(job, 60, 3, 6);
+            assertSummary(new Path(URI.create("jdbc://test/")), 60, 3, 8);
+            assertSummary(new Path(job, "chk-1/a"), 10, 1, 0);
+
+            write(new Path(job, "chk-1/a"), 5);
+            assertSummary(new Path(job, "chk-1"), 25, 2, 1);
+            assertSummary(job, 55, 3, 6);
+        }
+
+        @Test
+        void renameAndDelete() throws IOException {
+            final Path job = new Path(URI.create("jdbc://test/default/job"));
+            write(new Path(job, "chk-1/a"), 10);
+            write(new Path(job, "chk-1/sub/b"), 20);
+            write(new Path(job, "c"), 30);
+
+            assertTrue(fs.rename(new Path(job, "chk-1"), new Path(job, "chk-2/renamed")));
+            assertSummary(new Path(job, "chk-2"), 30, 2, 3);
+            assertSummary(job, 60, 3, 4);
+
+            assertTrue(fs.rename(new Path(job, "c"), new Path(job, "chk-2/renamed/sub")));
+            assertSummary(new Path(job, "chk-2/renamed/sub"), 50, 2, 1);
+            assertSummary(job, 60, 3, 4);
+
+            assertTrue(fs.delete(new Path(job, "chk-2/renamed/a"), false));
+            assertSummary(job, 50, 2, 4);
+            assertTrue(fs.delete(new Path(job, "chk-2/renamed"), true));
+            assertSummary(job, 0, 0, 2);
+            assertSummary(job.getParent(), 0, 0, 3);
+        }
+
+        @Test
+        void recompute() throws IOException {
+            final Path job = new Path(URI.create("jdbc://test/default/job"));
+            // 不维护汇总的写操作，相当于在已有的表上开启summary，或者进程崩溃丢失了增量
+            try (FSDataOutputStream out = walk.create(new Path(job, "chk-1/a"), FileSystem.WriteMode.OVERWRITE)) {
+                out.write(new byte[10]);
+            }
+            assertTrue(walk.mkdirs(new Path(job, "shared/x")));
+            assertEquals(0, fs.getContentSummary(job).getLength());
+
+            final JdbcContentSummary summary = fs.recomputeSummary(new Path(URI.create("jdbc://test/")));
+            assertEquals(10, summary.getLength());
+            assertSummary(job, 10, 1, 4);
+            assertSummary(new Path(job, "chk-1"), 10, 1, 1);
+
+            try (FSDataOutputStream out = walk.create(new Path(job, "shared/x/b"), FileSystem.WriteMode.OVERWRITE)) {
+                out.write(new byte[20]);
+            }
+            assertEquals(20, fs.recomputeSummary(new Path(job, "shared")).getLength());
+            assertSummary(job, 30, 2, 4);
+            assertSummary(job.getParent(), 30, 2, 5);
+            assertThrows(IllegalStateException.class, () -> walk.recomputeSummary(job));
+        }
+
+        @Test
+        void concurrentWritesAndRenames() throws Exception {
+            final Path job = new Path(URI.create("jdbc://test/default/job"));
+            final Path left = new Path(job, "left");
+            final Path right = new Path(job, "right");
+            write(new Path(left, "l/0"), 1);
+            write(new Path(right, "r/0"), 1);
+            final ExecutorService executor = Executors.newFixedThreadPool(6);
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    final Path dir = new Path(i % 2 == 0 ? left : right, "w" + i);
+                    futures.add(executor.submit(() -> {
+                        for (int j = 0; j < 20; j++) {
+                            write(new Path(dir, Integer.toString(j)), j);
+                        }
+                        return null;
+                    }));
+                }
+                // 方向相反的两组移动，同时涉及left与right的祖先目录
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10; j++) {
+                        assertTrue(fs.rename(new Path(left, "l"), new Path(right, "l")));
+                        assertTrue(fs.rename(new Path(right, "l"), new Path(left, "l")));
+                    }
+                    return null;
+                }));
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10; j++) {
+                        assertTrue(fs.rename(new Path(right, "r"), new Path(left, "r")));
+                        assertTrue(fs.rename(new Path(left, "r"), new Path(right, "r")));
+                    }
+                    return null;
+                }));
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            final long length = 2 + 4 * (19 * 20 / 2);
+            assertSummary(left, 1 + 2 * (19 * 20 / 2), 41, 4);
+            assertSummary(job, length, 82, 9);
+        }
+    }
+
+    /**
+     * 测试并行执行递归操作的JdbcFileSystem.
+     */
+    @Nested
+    final class Parallel {
+        private volatile JdbcFileSystem sequential;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            fs = fs(properties(JdbcFileSystemContext.PARALLELISM, "4"));
+            sequential = fs(new Properties());
+        }
+
+        private void write(final Path path, final int size) throws IOException {
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+                out.write(new byte[size]);
+            }
+        }
+
+        @Test
+        void contentSummary() throws IOException {
+            final Path job = new Path(URI.create("jdbc://test/default/job"));
+            int length = 0;
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 3; j++) {
+                    write(new Path(job, "chk-" + i + "/sub-" + j + "/file"), i * 10 + j);
+                    length += i * 10 + j;
+                }
+            }
+            write(new Path(job, "shared"), 100);
+            assertTrue(fs.mkdirs(new Path(job, "taskowned")));
+
+            final JdbcContentSummary summary = fs.getContentSummary(job);
+            assertEquals(length + 100, summary.getLength());
+            assertEquals(13, summary.getFileCount());
+            assertEquals(18, summary.getDirectoryCount());
+            assertEquals(sequential.getContentSummary(job).toString(), summary.toString());
+            assertEquals(sequential.getContentSummary(new Path(URI.create("jdbc://test/"))).toString(),
+                    fs.getContentSummary(new Path(URI.create("jdbc://test/"))).toString());
+            assertEquals(100, fs.getContentSummary(new Path(job, "shared")).getLength());
+        }
+
+        @Test
+        void invokeAll() throws IOException {
+            try (JdbcParallelExecutor executor = new JdbcParallelExecutor(2)) {
+                invokeAll(executor);
+            }
+        }
+
+        private void invokeAll(final JdbcParallelExecutor executor) throws IOException {
+            final Set<String> threads = ConcurrentHashMap.newKeySet();
+            // 任务中再次并行不会占满线程
+            assertEquals(Arrays.asList(6, 15), executor.invokeAll(Arrays.asList(1, 4), i -> {
+                threads.add(Thread.currentThread().getName());
+                return executor.invokeAll(Arrays.asList(i, i + 1, i + 2), j -> j).stream().mapToInt(j -> j).sum();
+            }));
+            assertTrue(threads.stream().allMatch(name -> name.startsWith("jdbc-parallel-")));
+
+            final IOException e = assertThrows(FileNotFoundException.class, () -> executor.invokeAll(
+                    Arrays.asList("a", "b", "c"), s -> {
+                        if (!"b".equals(s)) {
+                            throw new FileNotFoundException(s);
+                        }
+                        return s;
+                    }));
+            assertEquals("a", e.getMessage());
+            assertEquals(1, e.getSuppressed().length);
+        }
+
+        @Test
+        void closeContext() throws IOException {
+            final Properties properties = new Properties();
+            properties.setProperty(JdbcFileSystemContext.PARALLELISM, "4");
+            properties.setProperty(JdbcFileSystemContext.ASYNC_UPLOAD, "true");
+            properties.setProperty(JdbcFileSystemContext.RANGE_THRESHOLD, "16b");
+            properties.setProperty(JdbcFileSystemContext.RANGE_SIZE, "8b");
+            final JdbcFileSystemContext context = context(properties);
+            final JdbcFileSystem closing = new JdbcFileSystem(ds, URI.create("jdbc://test/default"), context);
+            final String content = "0123456789abcdefghijklmnopqrstuvwxyz";
+            final Path large = new Path(URI.create("jdbc://test/default/job/large"));
+            try (FSDataOutputStream out = closing.create(large, FileSystem.WriteMode.OVERWRITE)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+            closing.flush();
+
+            try (FSDataInputStream is = closing.open(large)) {
+                final byte[] buffer = new byte[content.length()];
+                assertEquals(16, is.read(buffer, 0, 16));
+                context.close();
+                assertTrue(context.getReadAheadExecutor().isShutdown());
+                // 关闭之后不再预读，剩余的区间在读取时查询
+                IOUtils.readFully(is, buffer, 16, buffer.length - 16);
+                assertEquals(content, new String(buffer, StandardCharsets.UTF_8));
+            }
+            final FSDataOutputStream out = closing.create(new Path(large.getParent(), "rejected"),
+                    FileSystem.WriteMode.OVERWRITE);
+            out.write(1);
+            assertThrows(IOException.class, out::close);
+            assertThrows(IOException.class, () -> closing.getContentSummary(large.getParent()));
+        }
+
+        @Test
+        void retireContext() throws Exception {
+            final Properties properties = new Properties();
+            properties.setProperty(JdbcFileSystemContext.PARALLELISM, "4");
+            properties.setProperty(JdbcFileSystemContext.RANGE_THRESHOLD, "16b");
+            final JdbcFileSystemContext context = context(properties);
+            JdbcFileSystem user = new JdbcFileSystem(ds, URI.create("jdbc://test/default"), context);
+            context.retire();
+            // 还有JdbcFileSystem在使用时不关闭
+            Thread.sleep(100);
+            assertFalse(context.getReadAheadExecutor().isShutdown());
+            assertTrue(user.mkdirs(new Path(URI.create("jdbc://test/default/retired"))));
+
+            user = null;
+            for (int i = 0; i < 100 && !context.getReadAheadExecutor().isTerminated(); i++) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            assertTrue(context.getReadAheadExecutor().isTerminated());
+        }
+    }
+
+    /**
+     * 测试按区间读取并顺序预读的JdbcFileSystem.
+     */
+    @Nested
+    final class Ranged {
+        private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+        @BeforeEach
+        void setUp() throws IOException {
+            fs = fs(properties(JdbcFileSystemContext.RANGE_THRESHOLD, "16b", JdbcFileSystemContext.RANGE_SIZE, "8b",
+                    JdbcFileSystemContext.READ_AHEAD, "2"));
+        }
+
+        private void write(final Path path, final String content) throws IOException {
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        @Test
+        void read() throws IOException {
+            final Path large = new Path(URI.create("jdbc://test/default/large"));
+            final Path small = new Path(URI.create("jdbc://test/default/small"));
+            write(large, CONTENT);
+            write(small, "small");
+            final JdbcFileSystemMetrics.Table metrics = JdbcFileSystemMetrics.get().table("test");
+            final long opens = metrics.getOperation("open").getCount();
+            final long others = metrics.getOperation(JdbcFileSystemMetrics.OTHER).getCount();
+
+            try (FSDataInputStream is = fs.open(large)) {
+                assertTrue(is instanceof JdbcRangedInputStream);
+                assertEquals(CONTENT, IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+            try (FSDataInputStream is = fs.open(small)) {
+                assertFalse(is instanceof JdbcRangedInputStream);
+                assertEquals("small", IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+            try (FSDataInputStream is = fs.open(large)) {
+                final byte[] buffer = new byte[5];
+                is.seek(30);
+                assertEquals(5, is.read(buffer));
+                assertEquals(CONTENT.substring(30, 35), new String(buffer, StandardCharsets.UTF_8));
+                is.seek(3);
+                assertEquals(CONTENT.charAt(3), is.read());
+                is.seek(CONTENT.length());
+                assertEquals(-1, is.read());
+            }
+            // 区间读取计入open
+            assertTrue(metrics.getOperation("open").getCount() - opens > 3);
+            assertEquals(others, metrics.getOperation(JdbcFileSystemMetrics.OTHER).getCount());
+        }
+
+        @Test
+        void modifiedAfterOpen() throws IOException {
+            final Path large = new Path(URI.create("jdbc://test/default/large"));
+            write(large, CONTENT);
+            try (FSDataInputStream is = fs.open(large)) {
+                write(large, CONTENT.toUpperCase());
+                is.seek(40);
+                assertThrows(FileNotFoundException.class, is::read);
+            }
+        }
+
+        @Test
+        void readAhead() throws IOException {
+            final byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+            final List<String> reads = new CopyOnWriteArrayList<>();
+            final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "read-ahead"));
+            try {
+                final JdbcRangedInputStream is = new JdbcRangedInputStream(Arrays.copyOf(content, 8), content.length, 8,
+                        2, executor, (offset, length) -> {
+                    reads.add(offset + "@" + Thread.currentThread().getName());
+                    return Arrays.copyOfRange(content, (int) offset, (int) offset + length);
+                });
+                final byte[] buffer = new byte[8];
+                // 第一次顺序读取后开始预读，深度逐渐增长到2
+                assertEquals(8, is.read(buffer));
+                assertEquals(8, is.read(buffer));
+                assertEquals(8, is.read(buffer));
+                assertEquals("8@main", reads.get(0));
+                assertEquals("16@read-ahead", reads.get(1));
+                // 随机跳转后停止预读
+                is.seek(50);
+                assertEquals(8, is.read(buffer));
+                assertEquals(CONTENT.substring(50, 58), new String(buffer, StandardCharsets.UTF_8));
+                assertTrue(reads.contains("48@main"));
+                assertTrue(reads.contains("56@main"));
+                assertFalse(reads.stream().anyMatch(read -> read.endsWith("@read-ahead")
+                        && Integer.parseInt(read.substring(0, read.indexOf('@'))) > 32));
+                is.close();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 测试延迟到close()时创建文件的JdbcFileSystem.
+     */
+    @Nested
+    final class Deferred {
+        private volatile JdbcFileSystem other;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            final Properties properties = properties(JdbcFileSystemContext.DEFERRED_CREATE, "true",
+                    JdbcFileSystemContext.SUMMARY, "true");
+            db.migrate(properties);
+            fs = fs(properties);
+            // 模拟另一个进程
+            other = fs(properties);
+        }
+
+        private String read(final Path path) throws IOException {
+            try (FSDataInputStream is = fs.open(path)) {
+                return IOUtils.toString(is, StandardCharsets.UTF_8);
+            }
+        }
+
+        @Test
+        void createOnClose() throws IOException {
+            final Path path = new Path(URI.create("jdbc://test/default/job/chk-1/file"));
+            final JdbcFileSystemMetrics.Operation upload = JdbcFileSystemMetrics.get().table("test")
+                    .getOperation("uploadFile");
+            final long uploads = upload.getCount();
+            final FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE);
+            out.write("content".getBytes(StandardCharsets.UTF_8));
+            // close之前文件与父目录都不可见
+            assertFalse(fs.exists(path));
+            assertFalse(fs.exists(path.getParent()));
+            assertThrows(FileAlreadyExistsException.class, () -> fs.create(path, FileSystem.WriteMode.NO_OVERWRITE));
+            out.close();
+
+            assertEquals(uploads + 1, upload.getCount());
+            assertEquals("content", read(path));
+            assertEquals(7, fs.getContentSummary(path.getParent().getParent()).getLength());
+            assertEquals(1, fs.getContentSummary(path.getParent().getParent()).getFileCount());
+            assertThrows(FileAlreadyExistsException.class, () -> fs.create(path, FileSystem.WriteMode.NO_OVERWRITE));
+
+            try (FSDataOutputStream overwrite = fs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+                overwrite.write("new".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals("new", read(path));
+            assertEquals(3, fs.getContentSummary(path.getParent()).getLength());
+        }
+
+        @Test
+        void conflictOnClose() throws IOException {
+            final Path path = new Path(URI.create("jdbc://test/default/job/file"));
+            final FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE);
+            out.write("first".getBytes(StandardCharsets.UTF_8));
+            try (FSDataOutputStream second = other.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+                second.write("second".getBytes(StandardCharsets.UTF_8));
+            }
+            assertThrows(FileAlreadyExistsException.class, out::close);
+            assertEquals("second", read(path));
+            assertEquals(1, fs.getContentSummary(path.getParent()).getFileCount());
+
+            // 预留在失败后释放
+            assertTrue(fs.delete(path, false));
+            try (FSDataOutputStream retry = fs.create(path, FileSystem.WriteMode.NO_OVERWRITE)) {
+                retry.write("retry".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals("retry", read(path));
+        }
+
+        @Test
+        void releaseOnRejectedUpload() throws IOException {
+            final Properties properties = new Properties();
+            properties.setProperty(JdbcFileSystemContext.DEFERRED_CREATE, "true");
+            properties.setProperty(JdbcFileSystemContext.ASYNC_UPLOAD, "true");
+            final JdbcFileSystemContext context = context(properties);
+            final JdbcFileSystem async = new JdbcFileSystem(ds, URI.create("jdbc://test/default"), context);
+            final Path path = new Path(URI.create("jdbc://test/default/job/file"));
+            final FSDataOutputStream out = async.create(path, FileSystem.WriteMode.NO_OVERWRITE);
+            out.write("rejected".getBytes(StandardCharsets.UTF_8));
+            context.close();
+            assertThrows(IOException.class, out::close);
+            assertFalse(async.exists(path));
+
+            // 上传没有开始，预留也要释放
+            final FSDataOutputStream retry = async.create(path, FileSystem.WriteMode.NO_OVERWRITE);
+            assertThrows(FileAlreadyExistsException.class, () -> async.create(path, FileSystem.WriteMode.NO_OVERWRITE));
+            assertThrows(IOException.class, retry::close);
+            assertNotNull(async.create(path, FileSystem.WriteMode.NO_OVERWRITE));
+        }
+    }
+
+    /**
+     * 测试jdbc表与本地目录之间的批量传输.
+     */
+    @Nested
+    final class BulkTransfer {
+        @TempDir
+        java.nio.file.Path localDir;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            fs = fs(properties(JdbcFileSystemContext.BATCH_SIZE, "3"));
+        }
+
+        private void write(final Path path, final String content) throws IOException {
+            try (FSDataOutputStream out = fs.create(path, FileSystem.WriteMode.OVERWRITE)) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private String read(final Path path) throws IOException {
+            try (FSDataInputStream is = fs.open(path)) {
+                return IOUtils.toString(is, StandardCharsets.UTF_8);
+            }
+        }
+
+        @Test
+        void exportAndImport() throws IOException {
+            final Path job = new Path(URI.create("jdbc://test/default/job"));
+            for (int i = 0; i < 5; i++) {
+                write(new Path(job, "chk-1/file-" + i), "content-" + i);
+            }
+            write(new Path(job, "shared/empty"), "");
+            assertTrue(fs.mkdirs(new Path(job, "taskowned")));
+
+            try (JdbcBulkTransfer transfer = new JdbcBulkTransfer(fs, 4)) {
+                // 被中断的导出遗留的临时文件
+                final java.nio.file.Path stale = Files.createDirectories(localDir.resolve(JdbcBulkTransfer.TEMP_DIR))
+                        .resolve("stale");
+                Files.write(stale, new byte[16]);
+                final JdbcBulkTransfer.Stats exported = transfer.exportTo(job, localDir);
+                assertEquals(6, exported.getFiles());
+                assertEquals(4, exported.getDirs());
+                assertEquals("content-3", new String(Files.readAllBytes(localDir.resolve("chk-1/file-3")),
+                        StandardCharsets.UTF_8));
+                assertEquals(0, Files.size(localDir.resolve("shared/empty")));
+                assertTrue(Files.isDirectory(localDir.resolve("taskowned")));
+                assertFalse(Files.exists(localDir.resolve(JdbcBulkTransfer.TEMP_DIR)));
+
+                // 再次导出时全部跳过
+                assertEquals(6, transfer.exportTo(job, localDir).getSkipped());
+
+                final Path restored = new Path(URI.create("jdbc://test/default/restored"));
+                final JdbcBulkTransfer.Stats imported = transfer.importFrom(localDir, restored);
+                // 空文件只需要创建元数据
+                assertEquals(5, imported.getFiles());
+                assertEquals(1, imported.getSkipped());
+                assertEquals(exported.getBytes(), imported.getBytes());
+                for (int i = 0; i < 5; i++) {
+                    assertEquals("content-" + i, read(new Path(restored, "chk-1/file-" + i)));
+                }
+                assertEquals(0, fs.getFileStatus(new Path(restored, "shared/empty")).getLen());
+                assertTrue(fs.getFileStatus(new Path(restored, "taskowned")).isDir());
+                assertEquals(5, fs.listStatus(new Path(restored, "chk-1")).length);
+            }
+        }
+
+        @Test
+        void resumeImport() throws IOException {
+            final java.nio.file.Path chk = Files.createDirectories(localDir.resolve("chk-1"));
+            for (int i = 0; i < 4; i++) {
+                Files.write(chk.resolve("file-" + i), ("content-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            final Path dst = new Path(URI.create("jdbc://test/default/job"));
+            try (JdbcBulkTransfer transfer = new JdbcBulkTransfer(fs, 2)) {
+                // 模拟中断：部分文件已经导入
+                write(new Path(dst, "chk-1/file-0"), "content-0");
+                fs.createFiles(new Path(dst, "chk-1"), Collections.singletonList("file-1"));
+
+                final JdbcBulkTransfer.Stats stats = transfer.importFrom(localDir, dst);
+                assertEquals(3, stats.getFiles());
+                assertEquals(1, stats.getSkipped());
+                for (int i = 0; i < 4; i++) {
+                    assertEquals("content-" + i, read(new Path(dst, "chk-1/file-" + i)));
+                }
+                assertEquals(4, transfer.importFrom(localDir, dst).getSkipped());
+            }
+        }
+    }
+}
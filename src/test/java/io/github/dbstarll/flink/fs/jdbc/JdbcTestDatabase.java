@@ -0,0 +1,164 @@
+package io.github.dbstarll.flink.fs.jdbc;
+
+import com.alibaba.druid.pool.DruidDataSourceFactory;
+import org.apache.commons.io.IOUtils;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 测试共用的数据库：用init.sql建表，再按JdbcFileSystemContext的配置执行sql目录下对应的迁移脚本.
+ */
+final class JdbcTestDatabase implements Closeable {
+    private static final String SCHEMA = "init.sql";
+    private static final String TABLE = "`test`";
+    private static final Map<String, String> MIGRATIONS = new LinkedHashMap<>();
+
+    static {
+        MIGRATIONS.put(JdbcFileSystemContext.PATH_HASH, "sql/path_hash.sql");
+        MIGRATIONS.put(JdbcFileSystemContext.TIER_URI, "sql/tier_ref.sql");
+        MIGRATIONS.put(JdbcFileSystemContext.SUMMARY, "sql/summary.sql");
+    }
+
+    private final DataSource ds;
+    private final String table;
+
+    /**
+     * 使用jdbc.properties中的连接池.
+     *
+     * @param table      表名
+     * @param properties JdbcFileSystemContext的配置
+     * @throws Exception 建表失败
+     */
+    JdbcTestDatabase(final String table, final Properties properties) throws Exception {
+        this.ds = DruidDataSourceFactory.createDataSource(load("jdbc.properties"));
+        this.table = table;
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            // H2没有path_hash.sql回填时用到的MD5与CONV
+            st.execute("CREATE ALIAS IF NOT EXISTS MD5 FOR '" + Functions.class.getName() + ".md5'");
+            st.execute("CREATE ALIAS IF NOT EXISTS CONV FOR '" + Functions.class.getName() + ".conv'");
+            st.execute(read(SCHEMA).replace(TABLE, "`" + table + "`"));
+        }
+        migrate(properties);
+    }
+
+    DataSource getDataSource() {
+        return ds;
+    }
+
+    /**
+     * 在已有的表上执行已开启的配置项的迁移脚本.
+     *
+     * @param properties JdbcFileSystemContext的配置
+     * @throws IOException 迁移失败
+     */
+    void migrate(final Properties properties) throws IOException {
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            for (Map.Entry<String, String> migration : MIGRATIONS.entrySet()) {
+                if (enabled(properties, migration.getKey())) {
+                    st.execute(read(migration.getValue()).replace(TABLE, "`" + table + "`"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * 分区表的建表语句. H2不支持CREATE TABLE ... LIKE，而且索引名在库内唯一，所以改用init.sql并去掉索引名.
+     *
+     * @return 含有"{partition}"的建表语句
+     * @throws IOException 读取init.sql失败
+     */
+    static String partitionSchema() throws IOException {
+        return read(SCHEMA).replace("CREATE TABLE " + TABLE, "CREATE TABLE IF NOT EXISTS `{partition}`")
+                .replaceAll("KEY `\\w+` ", "KEY ");
+    }
+
+    private static boolean enabled(final Properties properties, final String key) {
+        final String value = properties.getProperty(key);
+        return value != null && !value.isEmpty() && !"false".equalsIgnoreCase(value);
+    }
+
+    private static String read(final String name) throws IOException {
+        try (InputStream is = JdbcTestDatabase.class.getClassLoader().getResourceAsStream(name)) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Properties load(final String name) throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream is = JdbcTestDatabase.class.getClassLoader().getResourceAsStream(name)) {
+            properties.load(is);
+        }
+        return properties;
+    }
+
+    /**
+     * 删除存储表及其分区表，然后关闭连接池.
+     *
+     * @throws IOException 删除失败
+     */
+    @Override
+    public void close() throws IOException {
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            for (String name : tables(conn)) {
+                st.executeUpdate("drop table `" + name + "`");
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            if (ds instanceof Closeable) {
+                ((Closeable) ds).close();
+            }
+        }
+    }
+
+    private List<String> tables(final Connection conn) throws SQLException {
+        final List<String> tables = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES"
+                + " WHERE LOWER(TABLE_NAME)=? OR LOWER(TABLE_NAME) LIKE ?")) {
+            ps.setString(1, table.toLowerCase());
+            ps.setString(2, table.toLowerCase().replace("_", "\\_") + "\\_%");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * H2中MD5与CONV的实现，H2只能调用public类的方法.
+     */
+    public static final class Functions {
+        private Functions() {
+        }
+
+        public static String md5(final String value) throws NoSuchAlgorithmException {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return String.format("%032x", new BigInteger(1, digest));
+        }
+
+        public static String conv(final String value, final int from, final int to) {
+            return new BigInteger(value, from).toString(to);
+        }
+    }
+}